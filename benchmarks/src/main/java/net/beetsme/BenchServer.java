@@ -0,0 +1,154 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Nats;
+import io.nats.client.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.time.Duration;
+
+/**
+ * The server a benchmark runs against.
+ *
+ * <ul>
+ * <li>-Dnats.server.standin=true starts a {@link StandInServer} in the benchmark JVM on a free port</li>
+ * <li>-Dnats.server.bin=/path/to/nats-server starts that binary with JetStream enabled on a free port,
+ *     with its store in a temporary directory, and stops it when the benchmark is done</li>
+ * <li>otherwise -Dnats.server.url, default nats://localhost:4222, is used as is</li>
+ * </ul>
+ *
+ * JMH forks a JVM per benchmark, so each fork gets its own server when a binary is given.
+ */
+public class BenchServer implements AutoCloseable {
+    public static final String BIN_PROPERTY = "nats.server.bin";
+    public static final String URL_PROPERTY = "nats.server.url";
+    public static final String STANDIN_PROPERTY = "nats.server.standin";
+
+    private final String url;
+    private final Process process;
+    private final File storeDir;
+    private final StandInServer standIn;
+
+    private BenchServer(String url, Process process, File storeDir, StandInServer standIn) {
+        this.url = url;
+        this.process = process;
+        this.storeDir = storeDir;
+        this.standIn = standIn;
+    }
+
+    public static BenchServer start() throws Exception {
+        if (Boolean.getBoolean(STANDIN_PROPERTY)) {
+            StandInServer standIn = StandInServer.start();
+            return new BenchServer(standIn.getUrl(), null, null, standIn);
+        }
+
+        String bin = System.getProperty(BIN_PROPERTY);
+        if (bin == null || bin.isEmpty()) {
+            return new BenchServer(System.getProperty(URL_PROPERTY, Options.DEFAULT_URL), null, null, null);
+        }
+
+        int port = freePort();
+        File storeDir = Files.createTempDirectory("nats-bench").toFile();
+        Process process = new ProcessBuilder(bin, "-p", Integer.toString(port), "-js", "-sd", storeDir.getAbsolutePath())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        BenchServer server = new BenchServer("nats://localhost:" + port, process, storeDir, null);
+        server.awaitReady();
+        return server;
+    }
+
+    private void awaitReady() throws Exception {
+        long end = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                Nats.connect(options()).close();
+                return;
+            }
+            catch (IOException e) {
+                if (System.currentTimeMillis() > end) {
+                    close();
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Options options() {
+        return options(TuningProfile.DEFAULT);
+    }
+
+    public Options options(TuningProfile profile) {
+        return profile.apply(new Options.Builder()
+                .server(url)
+                .connectionTimeout(Duration.ofSeconds(5))
+                .noReconnect())
+                .build();
+    }
+
+    public Connection connect() throws Exception {
+        return Nats.connect(options());
+    }
+
+    public Connection connect(TuningProfile profile) throws Exception {
+        return Nats.connect(options(profile));
+    }
+
+    /**
+     * Stop the server. If interrupted while waiting for the process to exit, the interrupt is kept.
+     */
+    @Override
+    public void close() {
+        if (standIn != null) {
+            standIn.close();
+        }
+        if (process != null) {
+            process.destroy();
+            try {
+                process.waitFor();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deleteTree(storeDir);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            return ss.getLocalPort();
+        }
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish throughput by connection count, like NatsPub -conn. Each invocation connects,
+ * publishes MSGS messages spread over the connections and closes, so connecting is part of
+ * the measurement, but small next to the publishing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+    private static final int MSGS = 200_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int connections;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    private BenchServer server;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        server = BenchServer.start();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MSGS)
+    public void publish() throws Exception {
+        FanOutPublisher.builder(server.options(), "bench.fan")
+                .connections(connections)
+                .keys(connections * 4)
+                .payload(payload)
+                .msgCount(MSGS)
+                .build()
+                .run();
+    }
+}
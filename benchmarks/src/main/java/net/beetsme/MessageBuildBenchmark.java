@@ -0,0 +1,74 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import io.nats.client.impl.NatsMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the NatsMessage that NatsPub sends, with and without headers.
+ * No server is needed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBuildBenchmark {
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private String message;
+    private byte[] payload;
+    private Headers headers;
+
+    @Setup
+    public void setup() {
+        message = ExampleUtils.randomString(payloadSize).substring(0, payloadSize);
+        payload = message.getBytes(StandardCharsets.UTF_8);
+        headers = new Headers().add("key1", "value1").add("key2", "value2");
+    }
+
+    @Benchmark
+    public Message buildFromString() {
+        return NatsMessage.builder()
+                .subject("bench")
+                .data(message, StandardCharsets.UTF_8)
+                .build();
+    }
+
+    @Benchmark
+    public Message buildFromBytes() {
+        return NatsMessage.builder()
+                .subject("bench")
+                .data(payload)
+                .build();
+    }
+
+    @Benchmark
+    public Message buildWithHeaders() {
+        return NatsMessage.builder()
+                .subject("bench")
+                .headers(headers)
+                .data(payload)
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publish with a round trip flush after every message, like NatsPub, versus a flush per batch,
+ * like the sustained mode of NatsPub.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+    private static final int BATCH = 1000;
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"128", "4096"})
+    public int payloadSize;
+
+    private BenchServer server;
+    private Connection nc;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        server = BenchServer.start();
+        nc = server.connect();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        nc.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void publishFlushEach() throws Exception {
+        nc.publish("bench.pub", payload);
+        nc.flush(FLUSH_TIMEOUT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void publishFlushBatch() throws Exception {
+        for (int x = 0; x < BATCH; x++) {
+            nc.publish("bench.pub", payload);
+        }
+        nc.flush(FLUSH_TIMEOUT);
+    }
+}
@@ -0,0 +1,153 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.*;
+import io.nats.client.api.AckPolicy;
+import io.nats.client.api.ConsumerConfiguration;
+import io.nats.client.api.PublishAck;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consume batches from a pre-filled memory stream with each pull strategy the examples show:
+ * fetch (NatsJsPullSubFetch), pullExpiresIn (NatsJsPullSubExpiresIn), pullNoWait (NatsJsPullSubNoWait)
+ * and the pipelined PullConsumerEngine (-pipe).
+ *
+ * Every iteration starts a new ephemeral consumer at the beginning of the stream, with AckPolicy.None
+ * so acking is not part of the measurement. The stream must hold more messages than one iteration
+ * consumes, raise streamMsgs for fast servers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PullBenchmark {
+    private static final int BATCH = 100;
+    private static final String STREAM = "bench-pull";
+    private static final String SUBJECT = "bench-pull-subject";
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    @Param({"fetch", "expires", "nowait", "pipelined"})
+    public String strategy;
+
+    @Param({"500000"})
+    public int streamMsgs;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    private BenchServer server;
+    private Connection nc;
+    private JetStream js;
+    private JetStreamSubscription sub;
+    private PullConsumerEngine engine;
+
+    @Setup
+    public void setup() throws Exception {
+        server = BenchServer.start();
+        nc = server.connect();
+        js = nc.jetStream();
+
+        JetStreamManagement jsm = nc.jetStreamManagement();
+        try {
+            jsm.deleteStream(STREAM);
+        }
+        catch (JetStreamApiException e) {
+            // did not exist
+        }
+        jsm.addStream(StreamConfiguration.builder()
+                .name(STREAM)
+                .subjects(SUBJECT)
+                .storageType(StorageType.Memory)
+                .build());
+
+        byte[] payload = new byte[payloadSize];
+        List<CompletableFuture<PublishAck>> window = new ArrayList<>();
+        for (int x = 0; x < streamMsgs; x++) {
+            window.add(js.publishAsync(SUBJECT, payload));
+            if (window.size() == 1000) {
+                CompletableFuture.allOf(window.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                window.clear();
+            }
+        }
+        CompletableFuture.allOf(window.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe() throws Exception {
+        ConsumerConfiguration cc = ConsumerConfiguration.builder()
+                .ackPolicy(AckPolicy.None)
+                .build();
+        sub = js.subscribe(SUBJECT, PullSubscribeOptions.builder().configuration(cc).build());
+        nc.flush(TIMEOUT);
+        // quarter batches so several requests are in flight within each invocation
+        engine = PullConsumerEngine.builder()
+                .batchSize(BATCH / 4)
+                .inFlight(4)
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void unsubscribe() {
+        sub.unsubscribe();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        nc.jetStreamManagement().deleteStream(STREAM);
+        nc.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void consumeBatch() throws Exception {
+        switch (strategy) {
+            case "fetch":
+                if (sub.fetch(BATCH, TIMEOUT).size() != BATCH) {
+                    throw new IllegalStateException("Stream exhausted, raise streamMsgs");
+                }
+                break;
+            case "expires":
+                sub.pullExpiresIn(BATCH, TIMEOUT);
+                drain();
+                break;
+            case "nowait":
+                sub.pullNoWait(BATCH);
+                drain();
+                break;
+            default:
+                engine.run(sub, BATCH, m -> {});
+                break;
+        }
+    }
+
+    private void drain() throws InterruptedException {
+        for (int x = 0; x < BATCH; x++) {
+            if (sub.nextMessage(TIMEOUT) == null) {
+                throw new IllegalStateException("Stream exhausted, raise streamMsgs");
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.*;
+import io.nats.client.api.AckPolicy;
+import io.nats.client.api.ConsumerConfiguration;
+import io.nats.client.api.PublishAck;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consume batches from the same pre-filled memory stream with a pull consumer, as NatsJsPullSubFetch does,
+ * and with the push consumers NatsJsPushSub shows: plain, with flow control, and ordered.
+ *
+ * Every iteration starts a new ephemeral consumer at the beginning of the stream. Except for the ordered
+ * consumer, which never acks, each message is acked, and the short ack wait makes a consumer that cannot
+ * keep up see redeliveries. The redelivered counter, next to the messages counter, gives the redelivery rate.
+ * The stream must hold more messages than one iteration consumes, raise streamMsgs for fast servers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PushPullBenchmark {
+    private static final int BATCH = 100;
+    private static final String STREAM = "bench-push-pull";
+    private static final String SUBJECT = "bench-push-pull-subject";
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration ACK_WAIT = Duration.ofSeconds(1);
+    private static final Duration HEARTBEAT = Duration.ofSeconds(1);
+
+    @Param({"pull", "push", "push-fc", "ordered"})
+    public String consumer;
+
+    @Param({"1000"})
+    public int maxAckPending;
+
+    @Param({"500000"})
+    public int streamMsgs;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    /**
+     * Reported next to the throughput as totals, so redelivered over messages is the redelivery rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long messages;
+        public long redelivered;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+            redelivered = 0;
+        }
+    }
+
+    private BenchServer server;
+    private Connection nc;
+    private JetStream js;
+    private JetStreamSubscription sub;
+
+    @Setup
+    public void setup() throws Exception {
+        server = BenchServer.start();
+        nc = server.connect();
+        js = nc.jetStream();
+
+        JetStreamManagement jsm = nc.jetStreamManagement();
+        try {
+            jsm.deleteStream(STREAM);
+        }
+        catch (JetStreamApiException e) {
+            // did not exist
+        }
+        jsm.addStream(StreamConfiguration.builder()
+                .name(STREAM)
+                .subjects(SUBJECT)
+                .storageType(StorageType.Memory)
+                .build());
+
+        byte[] payload = new byte[payloadSize];
+        List<CompletableFuture<PublishAck>> window = new ArrayList<>();
+        for (int x = 0; x < streamMsgs; x++) {
+            window.add(js.publishAsync(SUBJECT, payload));
+            if (window.size() == 1000) {
+                CompletableFuture.allOf(window.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                window.clear();
+            }
+        }
+        CompletableFuture.allOf(window.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe() throws Exception {
+        ConsumerConfiguration.Builder ccb = ConsumerConfiguration.builder()
+                .ackPolicy(AckPolicy.Explicit)
+                .ackWait(ACK_WAIT)
+                .maxAckPending(maxAckPending);
+        switch (consumer) {
+            case "pull":
+                sub = js.subscribe(SUBJECT, PullSubscribeOptions.builder().configuration(ccb.build()).build());
+                break;
+            case "push":
+                sub = js.subscribe(SUBJECT, PushSubscribeOptions.builder().configuration(ccb.idleHeartbeat(HEARTBEAT).build()).build());
+                break;
+            case "push-fc":
+                sub = js.subscribe(SUBJECT, PushSubscribeOptions.builder().configuration(ccb.flowControl(HEARTBEAT).build()).build());
+                break;
+            default:
+                sub = js.subscribe(SUBJECT, PushSubscribeOptions.builder().ordered(true).build());
+                break;
+        }
+        nc.flush(TIMEOUT);
+    }
+
+    @TearDown(Level.Iteration)
+    public void unsubscribe() {
+        sub.unsubscribe();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        nc.jetStreamManagement().deleteStream(STREAM);
+        nc.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void consumeBatch(Counters counters) throws Exception {
+        if ("pull".equals(consumer)) {
+            List<Message> batch = sub.fetch(BATCH, TIMEOUT);
+            if (batch.size() != BATCH) {
+                throw new IllegalStateException("Stream exhausted, raise streamMsgs");
+            }
+            for (Message m : batch) {
+                handle(m, counters);
+            }
+            return;
+        }
+        for (int x = 0; x < BATCH; x++) {
+            Message m = sub.nextMessage(TIMEOUT);
+            if (m == null) {
+                throw new IllegalStateException("Stream exhausted, raise streamMsgs");
+            }
+            handle(m, counters);
+        }
+    }
+
+    private void handle(Message m, Counters counters) {
+        counters.messages++;
+        if (m.metaData().deliveredCount() > 1) {
+            counters.redelivered++;
+        }
+        if (!"ordered".equals(consumer)) {
+            m.ack();
+        }
+    }
+}
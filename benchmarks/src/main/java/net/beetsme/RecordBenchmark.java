@@ -0,0 +1,96 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+import io.nats.client.impl.NatsMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending and reading a structured record as a String, the way the examples send their message,
+ * and as a binary {@link Quote} written into a pooled array and read in place with {@link Quote.View}.
+ * Run with -prof gc to see the garbage each path leaves per record. No server is needed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordBenchmark {
+    private static final int RECORDS = 1024;
+
+    private final Quote[] quotes = new Quote[RECORDS];
+    private final byte[][] stringPayloads = new byte[RECORDS][];
+    private final byte[][] recordPayloads = new byte[RECORDS][];
+    private final BufferPool pool = new BufferPool();
+    private final Quote.View view = new Quote.View();
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (int x = 0; x < RECORDS; x++) {
+            quotes[x] = new Quote().set(x, 1_700_000_000_000L + x, 100 + x / 100.0, 1 + x % 500, "SYM" + (x % 16));
+            stringPayloads[x] = toText(quotes[x]).getBytes(StandardCharsets.UTF_8);
+            recordPayloads[x] = new byte[Quote.CODEC.size(quotes[x])];
+            Quote.CODEC.write(quotes[x], recordPayloads[x]);
+        }
+    }
+
+    private static String toText(Quote q) {
+        return q.getSequence() + "," + q.getTimestamp() + "," + q.getPrice() + "," + q.getSize() + "," + q.getSymbol();
+    }
+
+    private int next() {
+        next = (next + 1) & (RECORDS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Message publishString() {
+        return NatsMessage.builder()
+                .subject("bench")
+                .data(toText(quotes[next()]), StandardCharsets.UTF_8)
+                .build();
+    }
+
+    @Benchmark
+    public Message publishRecord() {
+        Quote q = quotes[next()];
+        byte[] buf = pool.acquire(Quote.CODEC.size(q));
+        Quote.CODEC.write(q, buf);
+        Message m = NatsMessage.builder()
+                .subject("bench")
+                .data(buf)
+                .build();
+        // as RecordPublisher does after the flush
+        pool.release(buf);
+        return m;
+    }
+
+    @Benchmark
+    public double readString() {
+        String[] fields = new String(stringPayloads[next()], StandardCharsets.UTF_8).split(",");
+        return Double.parseDouble(fields[2]) * Integer.parseInt(fields[3]) + (fields[4].equals("SYM3") ? 1 : 0);
+    }
+
+    @Benchmark
+    public double readRecord() {
+        Quote.View q = view.of(recordPayloads[next()], 0);
+        return q.price() * q.size() + (q.symbolIs("SYM3") ? 1 : 0);
+    }
+}
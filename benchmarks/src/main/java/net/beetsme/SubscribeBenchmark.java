@@ -0,0 +1,95 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import io.nats.client.Subscription;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a batch of messages through the server, received on a synchronous
+ * subscription like NatsSub, or on a Dispatcher like NatsSub -wrk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubscribeBenchmark {
+    private static final int BATCH = 1000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"sync", "dispatcher"})
+    public String mode;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    private BenchServer server;
+    private Connection pubNc;
+    private Connection subNc;
+    private Subscription sub;
+    private Dispatcher dispatcher;
+    private final Semaphore received = new Semaphore(0);
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws Exception {
+        server = BenchServer.start();
+        pubNc = server.connect();
+        subNc = server.connect();
+        payload = new byte[payloadSize];
+        if ("sync".equals(mode)) {
+            sub = subNc.subscribe("bench.sub");
+        }
+        else {
+            dispatcher = subNc.createDispatcher(msg -> received.release());
+            dispatcher.subscribe("bench.sub");
+        }
+        subNc.flush(TIMEOUT);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pubNc.close();
+        subNc.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void publishAndReceive() throws Exception {
+        for (int x = 0; x < BATCH; x++) {
+            pubNc.publish("bench.sub", payload);
+        }
+        pubNc.flushBuffer();
+
+        if (sub != null) {
+            for (int x = 0; x < BATCH; x++) {
+                if (sub.nextMessage(TIMEOUT) == null) {
+                    throw new IllegalStateException("Timed out waiting for messages");
+                }
+            }
+        }
+        else if (!received.tryAcquire(BATCH, TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Timed out waiting for messages");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Subscription;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each {@link TuningProfile}, as picked with -tune, measured two ways: sustained publish throughput
+ * like NatsPub -mcnt, and the round trip of a single message to a subscriber, which is where
+ * the low latency profile should win and the throughput profile should not.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TuningProfileBenchmark {
+    private static final int BATCH = 10_000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({"default", "low-latency", "high-throughput", "memory-constrained"})
+    public String profile;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    private BenchServer server;
+    private Connection pubNc;
+    private Connection subNc;
+    private Subscription sub;
+    private SustainedPublisher publisher;
+    private byte[] payload;
+    private boolean flushInline;
+
+    @Setup
+    public void setup() throws Exception {
+        TuningProfile tp = TuningProfile.of(profile);
+        server = BenchServer.start();
+        pubNc = server.connect(tp);
+        subNc = server.connect(tp);
+        payload = new byte[payloadSize];
+        flushInline = tp.flushInline();
+        sub = subNc.subscribe("bench.tune.rtt");
+        tp.applyPendingLimits(sub);
+        subNc.flush(TIMEOUT);
+        publisher = SustainedPublisher.builder(pubNc, "bench.tune.pub")
+                .payload(payload)
+                .msgCount(BATCH)
+                .flushInline(flushInline)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pubNc.close();
+        subNc.close();
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void publish() throws Exception {
+        publisher.run();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip() throws Exception {
+        pubNc.publish("bench.tune.rtt", payload);
+        if (flushInline) {
+            pubNc.flushBuffer();
+        }
+        if (sub.nextMessage(TIMEOUT) == null) {
+            throw new IllegalStateException("Timed out waiting for the message");
+        }
+    }
+}
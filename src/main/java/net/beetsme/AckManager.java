@@ -0,0 +1,297 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStreamApiException;
+import io.nats.client.JetStreamSubscription;
+import io.nats.client.Message;
+import io.nats.client.api.AckPolicy;
+import io.nats.client.api.ConsumerConfiguration;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects acks and sends them in bursts, when enough have been collected or on a timer,
+ * instead of acking each message inside the receive loop.
+ *
+ * <ul>
+ * <li>sync: every message is acked as soon as it is added, the same as calling ack()</li>
+ * <li>batch: acks are held and each held message is acked when the burst is sent</li>
+ * <li>all: for consumers with AckPolicy.All, only the last message added is acked when the burst is sent,
+ *     which acks every message before it</li>
+ * </ul>
+ *
+ * The ack wait of the consumer is read from the server. A burst is always sent before the oldest
+ * held message has been held for half its ack wait. The server starts the ack wait when it delivers
+ * the message, not when it is added here, so time spent in the client's pending buffer or waiting
+ * in a fetched batch is not counted. Add messages as soon as they are handled and keep that time
+ * well under the other half, or holding acks can still cause redeliveries.
+ */
+public class AckManager implements AutoCloseable {
+    public enum Mode {SYNC, BATCH, ALL}
+
+    public static final int DEFAULT_BURST_SIZE = 100;
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(100);
+
+    private final Mode mode;
+    private final int burstSize;
+    private final long ackWaitNanos;
+    private final long deadlineNanos;
+    private final List<Message> held;
+    private final ScheduledExecutorService timer;
+
+    private Message last;
+    private int heldCount;
+    private long oldestHeldNanos;
+
+    private long messagesAcked;
+    private long acksSent;
+    private long bursts;
+    private long deadlineBursts;
+    private long lateAcks;
+    private long maxHeldNanos;
+
+    private AckManager(Builder b, Mode mode, Duration ackWait) {
+        this.mode = mode;
+        this.burstSize = b.burstSize;
+        this.ackWaitNanos = ackWait.toNanos();
+        this.deadlineNanos = ackWaitNanos / 2;
+        this.held = new ArrayList<>(mode == Mode.BATCH ? burstSize : 0);
+        if (mode == Mode.SYNC) {
+            timer = null;
+        }
+        else {
+            // check at least 4 times per ack wait so the deadline is honored even when messages stop arriving
+            long intervalNanos = Math.min(b.interval.toNanos(), Math.max(1, ackWaitNanos / 4));
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ack-manager");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleAtFixedRate(this::flush, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Ack the message now or hold it for the next burst, depending on the mode.
+     * Can be used as a MessageHandler.
+     * @param m the message
+     */
+    public void add(Message m) {
+        if (mode == Mode.SYNC) {
+            m.ack();
+            synchronized (this) {
+                messagesAcked++;
+                acksSent++;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (heldCount == 0) {
+                oldestHeldNanos = now;
+            }
+            if (mode == Mode.BATCH) {
+                held.add(m);
+            }
+            last = m;
+            heldCount++;
+
+            if (heldCount >= burstSize) {
+                send(now);
+            }
+            else if (now - oldestHeldNanos >= deadlineNanos) {
+                deadlineBursts++;
+                send(now);
+            }
+        }
+    }
+
+    /**
+     * Send any held acks now.
+     */
+    public synchronized void flush() {
+        if (heldCount > 0) {
+            long now = System.nanoTime();
+            if (now - oldestHeldNanos >= deadlineNanos) {
+                deadlineBursts++;
+            }
+            send(now);
+        }
+    }
+
+    private void send(long now) {
+        long heldNanos = now - oldestHeldNanos;
+        maxHeldNanos = Math.max(maxHeldNanos, heldNanos);
+        if (heldNanos >= ackWaitNanos) {
+            lateAcks += heldCount;
+        }
+
+        if (mode == Mode.ALL) {
+            last.ack();
+            acksSent++;
+        }
+        else {
+            for (Message m : held) {
+                m.ack();
+            }
+            acksSent += heldCount;
+            held.clear();
+        }
+
+        // acks are plain publishes, push the whole burst to the socket together
+        try {
+            last.getConnection().flushBuffer();
+        }
+        catch (IOException e) {
+            // the acks are still queued and will be written by the connection
+        }
+
+        messagesAcked += heldCount;
+        bursts++;
+        heldCount = 0;
+        last = null;
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+        flush();
+    }
+
+    public synchronized long getMessagesAcked() {
+        return messagesAcked;
+    }
+
+    public synchronized long getAcksSent() {
+        return acksSent;
+    }
+
+    public synchronized long getLateAcks() {
+        return lateAcks;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public synchronized void printStats() {
+        if (mode == Mode.SYNC) {
+            System.out.printf("Acks: sync, %,d messages acked\n", messagesAcked);
+            return;
+        }
+        System.out.printf("Acks: %s, %,d messages acked with %,d acks in %,d bursts, %,d bursts forced by ack wait %d ms, max held %.1f ms, %,d held past ack wait\n",
+                mode.name().toLowerCase(), messagesAcked, acksSent, bursts, deadlineBursts,
+                ackWaitNanos / 1_000_000, maxHeldNanos / 1_000_000.0, lateAcks);
+    }
+
+    /**
+     * The ack policy the consumer should be created with for the ack mode on the command line.
+     * @param exArgs the parsed arguments
+     * @return AckPolicy.All for -ack all, otherwise null to leave the policy unset
+     */
+    public static AckPolicy ackPolicy(ExampleArgs exArgs) {
+        return "all".equalsIgnoreCase(exArgs.ackMode) ? AckPolicy.All : null;
+    }
+
+    /**
+     * @param mode sync, batch or all, in any case
+     * @return the mode
+     * @throws IllegalArgumentException if the mode is not one of those
+     */
+    public static Mode parseMode(String mode) {
+        for (Mode m : Mode.values()) {
+            if (m.name().equalsIgnoreCase(mode)) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Ack mode must be sync, batch or all, not " + mode);
+    }
+
+    public static Builder builder(JetStreamSubscription sub) {
+        return new Builder(sub);
+    }
+
+    public static class Builder {
+        private final JetStreamSubscription sub;
+        private Mode mode = Mode.SYNC;
+        private int burstSize = DEFAULT_BURST_SIZE;
+        private Duration interval = DEFAULT_INTERVAL;
+
+        public Builder(JetStreamSubscription sub) {
+            this.sub = sub;
+        }
+
+        public Builder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * @param mode sync, batch or all, null for sync
+         * @return the builder
+         * @throws IllegalArgumentException if the mode is not one of those
+         */
+        public Builder mode(String mode) {
+            this.mode = mode == null ? Mode.SYNC : parseMode(mode);
+            return this;
+        }
+
+        /**
+         * @param burstSize send the held acks once this many messages are held
+         * @return the builder
+         */
+        public Builder burstSize(int burstSize) {
+            this.burstSize = Math.max(1, burstSize);
+            return this;
+        }
+
+        /**
+         * @param interval send the held acks at least this often
+         * @return the builder
+         */
+        public Builder interval(Duration interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Build the manager. Unless the mode is sync, the consumer's ack wait and ack policy are looked up on the server.
+         * @return the manager
+         * @throws IOException if the consumer info request fails
+         * @throws JetStreamApiException if the server rejects the consumer info request
+         */
+        public AckManager build() throws IOException, JetStreamApiException {
+            if (mode == Mode.SYNC) {
+                return new AckManager(this, mode, Duration.ZERO);
+            }
+            ConsumerConfiguration cc = sub.getConsumerInfo().getConsumerConfiguration();
+            Mode m = mode;
+            if (m == Mode.ALL && cc.getAckPolicy() != AckPolicy.All) {
+                System.out.println("Consumer ack policy is " + cc.getAckPolicy() + ", not All, acking every message in batch mode.");
+                m = Mode.BATCH;
+            }
+            return new AckManager(this, m, cc.getAckWait());
+        }
+    }
+}
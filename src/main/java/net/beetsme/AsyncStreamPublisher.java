@@ -0,0 +1,297 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStream;
+import io.nats.client.JetStreamApiException;
+import io.nats.client.api.PublishAck;
+import io.nats.client.impl.Headers;
+import io.nats.client.support.NatsJetStreamConstants;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes into a stream with publishAsync, keeping up to a window of publishes waiting for their ack.
+ *
+ * <p>Once the window is full, the oldest publish is waited on before the next one is sent, so the
+ * window bounds both the memory held by the client and the work the server has queued for us.
+ * Every message carries a Nats-Msg-Id of the id prefix and its number, so a publish that times out
+ * can be sent again, and the server drops the copy if the first one did arrive after all.
+ * Running again with the same prefix only stores what did not make it the first time,
+ * as long as it is within the stream's duplicate window.
+ *
+ * <p>The client also ends requests it has been waiting on longer than the connection's request cleanup
+ * interval, default 5 seconds, and every request on a disconnect. Those are retried like a timeout,
+ * so an ack timeout above that interval has no effect, the retry comes when the client ends the request.
+ */
+public class AsyncStreamPublisher {
+    public static final int DEFAULT_WINDOW = 1000;
+    public static final int DEFAULT_RETRIES = 3;
+    public static final Duration DEFAULT_ACK_TIMEOUT = Duration.ofSeconds(5);
+
+    private final JetStream js;
+    private final String subject;
+    private final Headers headers;
+    private final byte[] payload;
+    private final int msgCount;
+    private final int window;
+    private final int retries;
+    private final long ackTimeoutNanos;
+    private final String idPrefix;
+    private final boolean timestamp;
+    private final ExampleMetrics metrics;
+
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private long retried;
+    private long failed;
+    private long elapsedNanos;
+
+    private AsyncStreamPublisher(Builder b) {
+        this.js = b.js;
+        this.subject = b.subject;
+        this.headers = b.headers == null || b.headers.isEmpty() ? null : b.headers;
+        this.payload = b.payload;
+        this.msgCount = b.msgCount;
+        this.window = Math.max(1, b.window);
+        this.retries = Math.max(0, b.retries);
+        this.ackTimeoutNanos = b.ackTimeout.toNanos();
+        this.idPrefix = b.idPrefix == null ? ExampleUtils.uniqueEnough() : b.idPrefix;
+        this.timestamp = b.timestamp;
+        this.metrics = b.metrics;
+    }
+
+    private class InFlight {
+        final int number;
+        final int attempt;
+        final long sentNanos;
+        final CompletableFuture<PublishAck> future;
+
+        InFlight(int number, int attempt) {
+            this.number = number;
+            this.attempt = attempt;
+            Headers h = headers == null ? new Headers() : new Headers(headers);
+            h.put(NatsJetStreamConstants.MSG_ID_HDR, idPrefix + "-" + number);
+            if (timestamp) {
+                h.put(ExampleUtils.PUB_NANOS_HEADER, Long.toString(ExampleUtils.epochNanos()));
+            }
+            sentNanos = System.nanoTime();
+            future = js.publishAsync(subject, h, payload);
+            future.thenAccept(this::acked);
+        }
+
+        private void acked(PublishAck pa) {
+            long latency = System.nanoTime() - sentNanos;
+            ackLatency.record(latency);
+            acked.incrementAndGet();
+            if (pa.isDuplicate()) {
+                duplicates.incrementAndGet();
+            }
+            if (metrics != null) {
+                metrics.record(payload.length);
+                metrics.recordLatency(latency);
+            }
+        }
+    }
+
+    public void run() throws InterruptedException {
+        ArrayDeque<InFlight> inFlight = new ArrayDeque<>(window);
+        long start = System.nanoTime();
+        for (int x = 1; x <= msgCount; x++) {
+            while (inFlight.size() >= window) {
+                awaitOldest(inFlight);
+            }
+            inFlight.add(new InFlight(x, 0));
+        }
+        while (!inFlight.isEmpty()) {
+            awaitOldest(inFlight);
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void awaitOldest(ArrayDeque<InFlight> inFlight) throws InterruptedException {
+        InFlight f = inFlight.poll();
+        long wait = f.sentNanos + ackTimeoutNanos - System.nanoTime();
+        try {
+            f.future.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            return;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof JetStreamApiException) {
+                // the server refused the message, sending it again gets the same answer
+                failed++;
+                System.err.println("Message " + f.number + " failed: " + e.getCause().getMessage());
+                return;
+            }
+        }
+        catch (TimeoutException e) {
+            f.future.cancel(false);
+        }
+        catch (CancellationException e) {
+            // the client gave up on the request itself, past its request cleanup interval or on a disconnect,
+            // which is a timeout as far as the retry is concerned
+        }
+
+        if (f.attempt < retries) {
+            retried++;
+            // same message id, so the server keeps only one if the first attempt did arrive
+            inFlight.add(new InFlight(f.number, f.attempt + 1));
+        }
+        else {
+            failed++;
+        }
+    }
+
+    public long getAcked() {
+        return acked.get();
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    public void printStats() {
+        long ackedCount = acked.get();
+        ExampleUtils.printThroughput("Acked", ackedCount, ackedCount * payload.length, elapsedNanos);
+        System.out.printf("Message id prefix %s, %,d duplicates, %,d retries, %,d failed\n",
+                idPrefix, duplicates.get(), retried, failed);
+        if (ackLatency.getTotalCount() > 0) {
+            System.out.printf("Ack latency (us): p50 %,.1f  p90 %,.1f  p99 %,.1f  p99.9 %,.1f  max %,.1f\n",
+                    ackLatency.getValueAtPercentile(50) / 1000.0, ackLatency.getValueAtPercentile(90) / 1000.0,
+                    ackLatency.getValueAtPercentile(99) / 1000.0, ackLatency.getValueAtPercentile(99.9) / 1000.0,
+                    ackLatency.getMax() / 1000.0);
+        }
+    }
+
+    public static Builder builder(JetStream js, String subject) {
+        return new Builder(js, subject);
+    }
+
+    public static class Builder {
+        private final JetStream js;
+        private final String subject;
+        private Headers headers;
+        private byte[] payload = new byte[0];
+        private int msgCount = 1;
+        private int window = DEFAULT_WINDOW;
+        private int retries = DEFAULT_RETRIES;
+        private Duration ackTimeout = DEFAULT_ACK_TIMEOUT;
+        private String idPrefix;
+        private boolean timestamp;
+        private ExampleMetrics metrics;
+
+        public Builder(JetStream js, String subject) {
+            this.js = js;
+            this.subject = subject;
+        }
+
+        /**
+         * @param headers optional headers sent with every message, null for none
+         * @return the builder
+         */
+        public Builder headers(Headers headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        /**
+         * @param payload the payload sent with every message, never modified by the publisher
+         * @return the builder
+         */
+        public Builder payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder msgCount(int msgCount) {
+            this.msgCount = msgCount;
+            return this;
+        }
+
+        /**
+         * @param window the most publishes waiting for an ack at once
+         * @return the builder
+         */
+        public Builder window(int window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * @param retries how many times a publish that was not acked in time is sent again
+         * @return the builder
+         */
+        public Builder retries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        /**
+         * @param ackTimeout how long to wait for an ack before sending again, keep it at or below the
+         *                   connection's request cleanup interval, the client ends the request there anyway
+         * @return the builder
+         */
+        public Builder ackTimeout(Duration ackTimeout) {
+            this.ackTimeout = ackTimeout;
+            return this;
+        }
+
+        /**
+         * @param idPrefix the message id prefix, reuse one to have the server drop what a previous run stored, null for a new one
+         * @return the builder
+         */
+        public Builder idPrefix(String idPrefix) {
+            this.idPrefix = idPrefix;
+            return this;
+        }
+
+        /**
+         * @param timestamp whether to send the publish time in the {@link ExampleUtils#PUB_NANOS_HEADER} header
+         * @return the builder
+         */
+        public Builder timestamp(boolean timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * @param metrics optional metrics to count every ack and its latency in, null for none
+         * @return the builder
+         */
+        public Builder metrics(ExampleMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public AsyncStreamPublisher build() {
+            return new AsyncStreamPublisher(this);
+        }
+    }
+}
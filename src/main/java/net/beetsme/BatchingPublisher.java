@@ -0,0 +1,312 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.impl.Headers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Packs small records into one message, trading a little latency for far fewer messages,
+ * so the per message protocol and server work is paid once per batch instead of once per record.
+ *
+ * <p>A batch is sent when it holds maxRecords records, when the next record would take it past maxBytes,
+ * or when its first record has waited the linger time. Every record is framed with its length, a 4 byte
+ * big endian int, and the {@link #BATCH_HEADER} header carries the record count, so an {@link Unbatcher}
+ * can tell a batch from a plain message. With timestamp the {@link ExampleUtils#PUB_NANOS_HEADER} header
+ * has the time the first record was added, so the measured latency includes the linger.
+ *
+ * <p>Every batch carries the headers given to the builder. With a {@link CodecLayer}, the whole batch is encoded
+ * and marked as one payload, a receiver decodes it before splitting it. With a {@link SpillBuffer}, batches
+ * are published through it, so they survive an outage like any other message.
+ *
+ * <p>Thread safe. The client holds the array of a sent batch until it is written, so each batch gets its own.
+ */
+public class BatchingPublisher implements AutoCloseable {
+    public static final String BATCH_HEADER = "Nats-Batch-Count";
+    public static final int DEFAULT_MAX_RECORDS = 100;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+    public static final Duration DEFAULT_LINGER = Duration.ofMillis(5);
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+    private static final int FRAME = 4;
+
+    private final Connection nc;
+    private final String subject;
+    private final int maxRecords;
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final boolean timestamp;
+    private final Headers headers;
+    private final CodecLayer codec;
+    private final SpillBuffer spill;
+    private final Thread lingerThread;
+    private volatile boolean running = true;
+
+    private byte[] buf;
+    private int size;
+    private int count;
+    private long firstNanos;
+    private long firstEpochNanos;
+
+    private long records;
+    private long recordBytes;
+    private long batches;
+    private long batchBytes;
+    private long sentOnCount;
+    private long sentOnBytes;
+    private long sentOnLinger;
+    private long startNanos;
+    private long endNanos;
+
+    private BatchingPublisher(Builder b) {
+        this.nc = b.nc;
+        this.subject = b.subject;
+        this.maxRecords = Math.max(1, b.maxRecords);
+        this.maxBytes = Math.max(FRAME + 1, b.maxBytes);
+        this.lingerNanos = b.linger == null ? 0 : b.linger.toNanos();
+        this.timestamp = b.timestamp;
+        this.headers = b.headers == null || b.headers.isEmpty() ? null : b.headers;
+        this.codec = b.codec;
+        this.spill = b.spill;
+        this.buf = new byte[Math.min(this.maxBytes, 4096)];
+        lingerThread = lingerNanos > 0 ? ExampleUtils.startThread("batch-linger", this::lingerLoop, "platform") : null;
+    }
+
+    /**
+     * Add a record to the current batch, sending the batch when it is full.
+     * A record bigger than maxBytes on its own is sent as a batch of one.
+     * @param record the record, copied, so it may be reused when this returns
+     */
+    public synchronized void add(byte[] record) {
+        long now = System.nanoTime();
+        if (startNanos == 0) {
+            startNanos = now;
+        }
+        if (count > 0 && size + FRAME + record.length > maxBytes) {
+            sentOnBytes++;
+            send();
+        }
+        if (count == 0) {
+            firstNanos = now;
+            firstEpochNanos = timestamp ? ExampleUtils.epochNanos() : 0;
+        }
+        ensureCapacity(size + FRAME + record.length);
+        buf[size] = (byte) (record.length >>> 24);
+        buf[size + 1] = (byte) (record.length >>> 16);
+        buf[size + 2] = (byte) (record.length >>> 8);
+        buf[size + 3] = (byte) record.length;
+        System.arraycopy(record, 0, buf, size + FRAME, record.length);
+        size += FRAME + record.length;
+        count++;
+        records++;
+        recordBytes += record.length;
+        if (count >= maxRecords) {
+            sentOnCount++;
+            send();
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(needed, Math.min(buf.length * 2, maxBytes)));
+        }
+    }
+
+    private void send() {
+        // the client holds the headers until the message is written, so each batch gets its own
+        Headers h = headers == null ? new Headers() : new Headers(headers);
+        h.put(BATCH_HEADER, Integer.toString(count));
+        if (timestamp) {
+            h.put(ExampleUtils.PUB_NANOS_HEADER, Long.toString(firstEpochNanos));
+        }
+        byte[] data = Arrays.copyOf(buf, size);
+        if (codec != null) {
+            data = codec.encode(data, h);
+        }
+        if (spill != null) {
+            spill.publish(subject, h, data);
+        }
+        else {
+            nc.publish(subject, h, data);
+        }
+        batches++;
+        batchBytes += size;
+        endNanos = System.nanoTime();
+        size = 0;
+        count = 0;
+    }
+
+    private void lingerLoop() {
+        long park = Math.max(lingerNanos / 4, 100_000);
+        while (running) {
+            LockSupport.parkNanos(park);
+            synchronized (this) {
+                if (count > 0 && System.nanoTime() - firstNanos >= lingerNanos) {
+                    try {
+                        sentOnLinger++;
+                        send();
+                    }
+                    catch (IllegalStateException e) {
+                        // the connection is not taking messages, the batch waits for the next try
+                        sentOnLinger--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Send what is batched and flush the connection.
+     * @throws TimeoutException if the flush does not complete in time
+     * @throws InterruptedException if interrupted while flushing
+     */
+    public void flush() throws TimeoutException, InterruptedException {
+        synchronized (this) {
+            if (count > 0) {
+                sentOnLinger++;
+                send();
+            }
+        }
+        if (spill == null || nc.getStatus() == Connection.Status.CONNECTED) {
+            nc.flush(FLUSH_TIMEOUT);
+        }
+    }
+
+    /**
+     * Stop the linger thread, send what is batched and flush the connection.
+     * If interrupted while waiting, the interrupt is kept.
+     * @throws TimeoutException if the flush does not complete in time
+     */
+    @Override
+    public void close() throws TimeoutException {
+        running = false;
+        try {
+            if (lingerThread != null) {
+                lingerThread.join();
+            }
+            flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized void printStats() {
+        double seconds = Math.max(endNanos - startNanos, 1) / 1_000_000_000.0;
+        System.out.printf("Batched %,d records (%,d bytes) into %,d messages (%,d bytes), %.1f records per message,"
+                        + " sent on count %,d, on bytes %,d, on linger or flush %,d, %,.0f records/sec, %,.0f msgs/sec\n",
+                records, recordBytes, batches, batchBytes, batches == 0 ? 0.0 : (double) records / batches,
+                sentOnCount, sentOnBytes, sentOnLinger, records / seconds, batches / seconds);
+    }
+
+    public static Builder builder(Connection nc, String subject) {
+        return new Builder(nc, subject);
+    }
+
+    public static class Builder {
+        private final Connection nc;
+        private final String subject;
+        private int maxRecords = DEFAULT_MAX_RECORDS;
+        private int maxBytes = DEFAULT_MAX_BYTES;
+        private Duration linger = DEFAULT_LINGER;
+        private boolean timestamp;
+        private Headers headers;
+        private CodecLayer codec;
+        private SpillBuffer spill;
+
+        public Builder(Connection nc, String subject) {
+            this.nc = nc;
+            this.subject = subject;
+        }
+
+        /**
+         * @param maxRecords the records in a batch before it is sent
+         * @return the builder
+         */
+        public Builder maxRecords(int maxRecords) {
+            this.maxRecords = maxRecords;
+            return this;
+        }
+
+        /**
+         * @param maxBytes the most bytes in a batch, frames included, keep it under the server's max payload
+         * @return the builder
+         */
+        public Builder maxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param linger the longest a record waits for its batch to fill, null or zero to only send full batches
+         * @return the builder
+         */
+        public Builder linger(Duration linger) {
+            this.linger = linger;
+            return this;
+        }
+
+        /**
+         * @param timestamp whether to send the time of the first record in the {@link ExampleUtils#PUB_NANOS_HEADER} header
+         * @return the builder
+         */
+        public Builder timestamp(boolean timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * @param headers headers every batch carries, copied per batch
+         * @return the builder
+         */
+        public Builder headers(Headers headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        /**
+         * @param codec the layer that encodes each batch, null to send batches as they are
+         * @return the builder
+         */
+        public Builder codec(CodecLayer codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * @param spill the spill buffer batches are published through, null to publish directly
+         * @return the builder
+         */
+        public Builder spill(SpillBuffer spill) {
+            this.spill = spill;
+            return this;
+        }
+
+        public BatchingPublisher build() {
+            return new BatchingPublisher(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payload arrays kept for reuse, by exact size, because the client publishes a whole array.
+ * Structured records come in a few sizes, so after the first flush almost every array is a reused one.
+ *
+ * <p>An array may only be released once the client is done with it, it keeps a reference until
+ * the message is written, which a flush guarantees. At most maxPerSize arrays of a size are kept.
+ */
+public class BufferPool {
+    public static final int DEFAULT_MAX_PER_SIZE = 4096;
+
+    private final int maxPerSize;
+    private final Map<Integer, ArrayDeque<byte[]>> free = new HashMap<>();
+
+    private long acquired;
+    private long allocated;
+    private long dropped;
+
+    public BufferPool() {
+        this(DEFAULT_MAX_PER_SIZE);
+    }
+
+    public BufferPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+    }
+
+    /**
+     * @param size the exact size
+     * @return a free array of that size, or a new one, its contents are not cleared
+     */
+    public synchronized byte[] acquire(int size) {
+        acquired++;
+        ArrayDeque<byte[]> arrays = free.get(size);
+        byte[] buf = arrays == null ? null : arrays.pollLast();
+        if (buf == null) {
+            allocated++;
+            buf = new byte[size];
+        }
+        return buf;
+    }
+
+    /**
+     * @param buf an array the client no longer references
+     */
+    public synchronized void release(byte[] buf) {
+        ArrayDeque<byte[]> arrays = free.computeIfAbsent(buf.length, k -> new ArrayDeque<>());
+        if (arrays.size() < maxPerSize) {
+            arrays.addLast(buf);
+        }
+        else {
+            dropped++;
+        }
+    }
+
+    public synchronized void printStats() {
+        System.out.printf("Buffer pool: %,d arrays handed out, %,d allocated (%.2f%%), %,d dropped over the limit, %d sizes\n",
+                acquired, allocated, acquired == 0 ? 0.0 : allocated * 100.0 / acquired, dropped, free.size());
+    }
+}
@@ -0,0 +1,215 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encodes payloads on publish and decodes them on receive with a {@link PayloadCodec},
+ * keeping count of what it did and the time it took.
+ *
+ * <p>Payloads under the threshold are sent as they are, compressing a few hundred bytes costs more than
+ * it saves. So are payloads the codec does not make smaller. Only an encoded payload gets the
+ * {@link PayloadCodec#HEADER} header, so receivers decode exactly what was encoded and pass everything else
+ * through, whatever threshold the publisher used.
+ *
+ * <p>The header comes from whoever published, so a receiver only decodes with the codecs it was built with.
+ * A payload naming any other codec, or one that does not decode within the size limit, is counted and skipped,
+ * {@link #decode(Message)} returns null for it.
+ */
+public class CodecLayer {
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_DECODED_SIZE = 1024 * 1024;
+
+    private final PayloadCodec codec;
+    private final int threshold;
+    private final int maxDecodedSize;
+    private final Map<String, PayloadCodec> codecs;
+
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder notSmaller = new LongAdder();
+    private final LongAdder encodeIn = new LongAdder();
+    private final LongAdder encodeOut = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder decodeIn = new LongAdder();
+    private final LongAdder decodeOut = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private CodecLayer(Builder b) {
+        this.codec = b.codec;
+        this.threshold = b.threshold;
+        this.maxDecodedSize = b.maxDecodedSize;
+        Map<String, PayloadCodec> map = new HashMap<>(b.accepted);
+        if (codec != null) {
+            map.put(codec.name(), codec);
+        }
+        this.codecs = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Encode a payload for publishing, if it is big enough and gets smaller.
+     * @param data the payload, not modified
+     * @param headers the headers the message will be published with, the codec header is added to them when encoded
+     * @return the payload to publish, the same array when not encoded
+     */
+    public byte[] encode(byte[] data, Headers headers) {
+        if (codec == null || data.length < threshold) {
+            skipped.increment();
+            return data;
+        }
+        long start = System.nanoTime();
+        byte[] out = codec.encode(data);
+        encodeNanos.add(System.nanoTime() - start);
+        if (out.length >= data.length) {
+            notSmaller.increment();
+            return data;
+        }
+        encoded.increment();
+        encodeIn.add(data.length);
+        encodeOut.add(out.length);
+        headers.put(PayloadCodec.HEADER, codec.name());
+        return out;
+    }
+
+    /**
+     * Decode a received payload with the codec its header names, if it is one of this layer's.
+     * @param m the message
+     * @return the original payload, the message's own array when it was not encoded,
+     * or null when the codec is not one of this layer's or the payload does not decode
+     */
+    public byte[] decode(Message m) {
+        byte[] data = m.getData() == null ? new byte[0] : m.getData();
+        String name = m.hasHeaders() ? m.getHeaders().getFirst(PayloadCodec.HEADER) : null;
+        if (name == null) {
+            return data;
+        }
+        PayloadCodec c = codecs.get(name);
+        if (c == null) {
+            unknown.increment();
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] out;
+        try {
+            out = c.decode(data, maxDecodedSize);
+        }
+        catch (RuntimeException e) {
+            failed.increment();
+            return null;
+        }
+        decodeNanos.add(System.nanoTime() - start);
+        decoded.increment();
+        decodeIn.add(data.length);
+        decodeOut.add(out.length);
+        return out;
+    }
+
+    public long getDecoded() {
+        return decoded.sum();
+    }
+
+    /**
+     * @return the payloads decode returned null for, an unknown codec or a payload that did not decode
+     */
+    public long getSkipped() {
+        return unknown.sum() + failed.sum();
+    }
+
+    public void printStats() {
+        if (codec != null) {
+            long in = encodeIn.sum();
+            long out = encodeOut.sum();
+            long tried = encoded.sum() + notSmaller.sum();
+            System.out.printf("Codec %s: %,d payloads encoded, %,d under %,d bytes and %,d not smaller sent as is, %,d bytes to %,d, ratio %.2f, %.1f us per encode, %.1f MB/sec\n",
+                    codec.name(), encoded.sum(), skipped.sum(), threshold, notSmaller.sum(), in, out,
+                    out == 0 ? 0.0 : (double) in / out, tried == 0 ? 0.0 : encodeNanos.sum() / 1000.0 / tried,
+                    mbPerSec(in, encodeNanos.sum()));
+        }
+        if (decoded.sum() > 0) {
+            long in = decodeIn.sum();
+            long out = decodeOut.sum();
+            System.out.printf("Decoded %,d payloads, %,d bytes to %,d, ratio %.2f, %.1f us per decode, %.1f MB/sec\n",
+                    decoded.sum(), in, out, (double) out / Math.max(1, in), decodeNanos.sum() / 1000.0 / decoded.sum(),
+                    mbPerSec(out, decodeNanos.sum()));
+        }
+        if (unknown.sum() + failed.sum() > 0) {
+            System.out.printf("Skipped %,d payloads with a codec not in %s and %,d that did not decode within %,d bytes\n",
+                    unknown.sum(), codecs.keySet(), failed.sum(), maxDecodedSize);
+        }
+    }
+
+    private static double mbPerSec(long bytes, long nanos) {
+        return nanos == 0 ? 0.0 : bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+
+    public static Builder builder(PayloadCodec codec) {
+        return new Builder(codec);
+    }
+
+    public static class Builder {
+        private final PayloadCodec codec;
+        private int threshold = DEFAULT_THRESHOLD;
+        private int maxDecodedSize = DEFAULT_MAX_DECODED_SIZE;
+        private final Map<String, PayloadCodec> accepted = new HashMap<>();
+
+        /**
+         * @param codec the codec to encode with, null to only decode
+         */
+        public Builder(PayloadCodec codec) {
+            this.codec = codec;
+        }
+
+        /**
+         * @param threshold the smallest payload that is encoded
+         * @return the builder
+         */
+        public Builder threshold(int threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Accept payloads encoded with a codec other than the one this layer encodes with.
+         * @param codec the codec to decode with
+         * @return the builder
+         */
+        public Builder accept(PayloadCodec codec) {
+            accepted.put(codec.name(), codec);
+            return this;
+        }
+
+        /**
+         * @param maxDecodedSize the largest payload a decode may produce, usually the connection's max payload
+         * @return the builder
+         */
+        public Builder maxDecodedSize(int maxDecodedSize) {
+            this.maxDecodedSize = maxDecodedSize;
+            return this;
+        }
+
+        public CodecLayer build() {
+            return new CodecLayer(this);
+        }
+    }
+}
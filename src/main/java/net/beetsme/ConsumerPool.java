@@ -0,0 +1,271 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Competing consumers: several workers, each with its own pull subscription bound to the same
+ * durable consumer, so the server spreads the messages across them.
+ *
+ * <p>Workers are spread round robin over one or more connections and run on the example worker pool.
+ * Each worker fetches, handles and acks a batch at a time, and sizes its next batch so handling it
+ * takes about the target batch time, based on an average of the time per message so far.
+ * Slow handling gives small batches, which keeps messages from waiting in a busy worker
+ * while another is idle, fast handling gives large batches and fewer round trips.
+ */
+public class ConsumerPool {
+    public static final Duration DEFAULT_TARGET_BATCH_TIME = Duration.ofMillis(100);
+    private static final Duration FETCH_WAIT = Duration.ofSeconds(1);
+    private static final double SMOOTHING = 0.2;
+
+    private final List<Connection> connections;
+    private final String stream;
+    private final String durable;
+    private final int workerCount;
+    private final String threads;
+    private final int minBatch;
+    private final int maxBatch;
+    private final long targetNanos;
+    private final String ackMode;
+    private final PayloadHandler handler;
+
+    private final List<Worker> workers = new ArrayList<>();
+    private long elapsedNanos;
+
+    private ConsumerPool(Builder b) {
+        this.connections = b.connections;
+        this.stream = b.stream;
+        this.durable = b.durable;
+        this.workerCount = b.workers;
+        this.threads = b.threads;
+        this.minBatch = b.minBatch;
+        this.maxBatch = Math.max(b.minBatch, b.maxBatch);
+        this.targetNanos = b.targetBatchTime.toNanos();
+        this.ackMode = b.ackMode;
+        this.handler = b.handler;
+    }
+
+    /**
+     * Consume until msgCount messages have been handled across all workers.
+     * Each worker claims its batch from what is left before fetching, so no more than msgCount are handled.
+     * @param msgCount the number of messages
+     * @throws Exception if a worker fails
+     */
+    public void run(long msgCount) throws Exception {
+        AtomicLong remaining = new AtomicLong(msgCount);
+        for (int w = 0; w < workerCount; w++) {
+            Connection nc = connections.get(w % connections.size());
+            JetStreamSubscription sub = nc.jetStream().subscribe(null, PullSubscribeOptions.bind(stream, durable));
+            workers.add(new Worker(w + 1, sub, AckManager.builder(sub).mode(ackMode).build(), remaining));
+        }
+
+        ExecutorService pool = ExampleUtils.createWorkerPool(workerCount, threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Worker w : workers) {
+                futures.add(pool.submit(() -> {
+                    w.run();
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        }
+        finally {
+            elapsedNanos = System.nanoTime() - start;
+            pool.shutdown();
+            for (Worker w : workers) {
+                w.acks.close();
+                w.sub.unsubscribe();
+            }
+        }
+    }
+
+    public void printThroughput() {
+        long msgs = 0;
+        long bytes = 0;
+        for (Worker w : workers) {
+            msgs += w.msgs;
+            bytes += w.bytes;
+            System.out.printf("  Worker %d: %,d batches, average batch %.1f, last batch size %d, %,.1f us per message\n",
+                    w.id, w.batches, w.batches == 0 ? 0.0 : (double) w.msgs / w.batches, w.batchSize, w.nanosPerMsg / 1000);
+            ExampleUtils.printThroughput("  Worker " + w.id, w.msgs, w.bytes, w.elapsedNanos);
+        }
+        ExampleUtils.printThroughput("Consumed by " + workerCount + " workers", msgs, bytes, elapsedNanos);
+    }
+
+    private class Worker {
+        final int id;
+        final JetStreamSubscription sub;
+        final AckManager acks;
+        final AtomicLong remaining;
+        final PayloadView view = new PayloadView();
+        int batchSize = minBatch;
+        double nanosPerMsg;
+        long msgs;
+        long bytes;
+        long batches;
+        long elapsedNanos;
+
+        Worker(int id, JetStreamSubscription sub, AckManager acks, AtomicLong remaining) {
+            this.id = id;
+            this.sub = sub;
+            this.acks = acks;
+            this.remaining = remaining;
+        }
+
+        void run() {
+            long start = System.nanoTime();
+            int want;
+            while ((want = claim(batchSize)) > 0) {
+                List<Message> list = sub.fetch(want, FETCH_WAIT);
+                // hand back what the server did not send, another worker or the next fetch takes it
+                remaining.addAndGet(want - list.size());
+                if (list.isEmpty()) {
+                    continue;
+                }
+                long handleStart = System.nanoTime();
+                for (Message m : list) {
+                    handler.onPayload(view.of(m));
+                    acks.add(m);
+                    bytes += view.length();
+                }
+                adapt(list.size(), want, System.nanoTime() - handleStart);
+                msgs += list.size();
+                batches++;
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+
+        private int claim(int size) {
+            while (true) {
+                long left = remaining.get();
+                int want = (int) Math.min(size, left);
+                if (want <= 0 || remaining.compareAndSet(left, left - want)) {
+                    return Math.max(0, want);
+                }
+            }
+        }
+
+        private void adapt(int received, int wanted, long handleNanos) {
+            double perMsg = (double) handleNanos / received;
+            nanosPerMsg = nanosPerMsg == 0 ? perMsg : nanosPerMsg * (1 - SMOOTHING) + perMsg * SMOOTHING;
+            int ideal = (int) Math.max(minBatch, Math.min(maxBatch, targetNanos / Math.max(1.0, nanosPerMsg)));
+            // a short batch means the stream is nearly drained, not that a bigger batch would help
+            batchSize = received < wanted ? Math.min(batchSize, ideal) : ideal;
+        }
+    }
+
+    public static Builder builder(String stream, String durable) {
+        return new Builder(stream, durable);
+    }
+
+    public static class Builder {
+        private final String stream;
+        private final String durable;
+        private final List<Connection> connections = new ArrayList<>();
+        private int workers = 1;
+        private String threads;
+        private int minBatch = 1;
+        private int maxBatch = 256;
+        private Duration targetBatchTime = DEFAULT_TARGET_BATCH_TIME;
+        private String ackMode;
+        private PayloadHandler handler = payload -> {};
+
+        public Builder(String stream, String durable) {
+            this.stream = stream;
+            this.durable = durable;
+        }
+
+        /**
+         * @param nc a connection to spread workers over, add several to spread them over several
+         * @return the builder
+         */
+        public Builder connection(Connection nc) {
+            connections.add(nc);
+            return this;
+        }
+
+        public Builder workers(int workers) {
+            this.workers = Math.max(1, workers);
+            return this;
+        }
+
+        /**
+         * @param threads platform or virtual, see {@link ExampleUtils#createWorkerPool(int, String)}
+         * @return the builder
+         */
+        public Builder threads(String threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder minBatch(int minBatch) {
+            this.minBatch = Math.max(1, minBatch);
+            return this;
+        }
+
+        public Builder maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        /**
+         * @param targetBatchTime how long handling one batch should take, keep it well under the ack wait
+         * @return the builder
+         */
+        public Builder targetBatchTime(Duration targetBatchTime) {
+            this.targetBatchTime = targetBatchTime;
+            return this;
+        }
+
+        /**
+         * @param ackMode sync or batch, see {@link AckManager}, all would ack messages other workers have not handled
+         * @return the builder
+         */
+        public Builder ackMode(String ackMode) {
+            this.ackMode = ackMode;
+            return this;
+        }
+
+        /**
+         * @param handler called on the worker's thread for every message, must be thread safe
+         * @return the builder
+         */
+        public Builder handler(PayloadHandler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public ConsumerPool build() {
+            if (connections.isEmpty()) {
+                throw new IllegalStateException("At least one connection is required");
+            }
+            if ("all".equalsIgnoreCase(ackMode)) {
+                throw new IllegalArgumentException("Ack mode all acks messages other workers have not handled, use sync or batch");
+            }
+            return new ConsumerPool(this);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link PayloadCodec} using the JDK's raw deflate, no zlib or gzip wrapper, at one compression level.
+ * Deflaters and inflaters hold native memory, so each thread keeps one of each and resets it between payloads.
+ */
+public class DeflateCodec implements PayloadCodec {
+    public static final String FAST_NAME = "deflate";
+    public static final String BEST_NAME = "deflate-max";
+    public static final DeflateCodec FAST = new DeflateCodec(FAST_NAME, Deflater.BEST_SPEED);
+    public static final DeflateCodec BEST = new DeflateCodec(BEST_NAME, Deflater.BEST_COMPRESSION);
+
+    private final String name;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateCodec(String name, int level) {
+        this.name = name;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        // room for incompressible input, deflate adds 5 bytes per 16K block
+        byte[] out = new byte[data.length + data.length / 1000 + 64];
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            len += deflater.deflate(out, len, out.length - len);
+        }
+        return Arrays.copyOf(out, len);
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int maxSize) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+        byte[] out = new byte[Math.min(maxSize, Math.max(64, data.length * 4))];
+        int len = 0;
+        try {
+            while (!inflater.finished()) {
+                if (len == out.length && len >= maxSize) {
+                    // full at the limit, a payload of exactly maxSize can still have its end of stream to read,
+                    // it is only too big if there is more output
+                    if (inflater.inflate(new byte[1]) > 0) {
+                        throw new IllegalArgumentException(name + " payload inflates to more than " + maxSize + " bytes");
+                    }
+                    if (!inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IllegalArgumentException("Truncated " + name + " payload");
+                    }
+                    continue;
+                }
+                if (len == out.length) {
+                    // a few bytes can inflate to gigabytes, never grow past the limit
+                    out = Arrays.copyOf(out, (int) Math.min(maxSize, out.length * 2L));
+                }
+                int n = inflater.inflate(out, len, out.length - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated " + name + " payload");
+                }
+                len += n;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IllegalArgumentException("Not a " + name + " payload", e);
+        }
+        return Arrays.copyOf(out, len);
+    }
+}
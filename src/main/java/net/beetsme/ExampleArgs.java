@@ -33,7 +33,49 @@ public class ExampleArgs {
     public String consumer;
     public String durable;
     public String deliverSubject;
+    public int heartbeat = Integer.MIN_VALUE;
+    public boolean flowControl;
+    public int maxAckPending = Integer.MIN_VALUE;
+    public boolean ordered;
     public int pullSize = Integer.MIN_VALUE;
+    public int maxBytes = Integer.MIN_VALUE;
+    public int pipeline = Integer.MIN_VALUE;
+    public String ackMode;
+    public int payloadSize = Integer.MIN_VALUE;
+    public int rate = Integer.MIN_VALUE;
+    public int flushBatch = Integer.MIN_VALUE;
+    public int connections = Integer.MIN_VALUE;
+    public int keyCount = Integer.MIN_VALUE;
+    public int workers = Integer.MIN_VALUE;
+    public String threads;
+    public int lanes = Integer.MIN_VALUE;
+    public String laneKey;
+    public int window = Integer.MIN_VALUE;
+    public int retries = Integer.MIN_VALUE;
+    public String msgIdPrefix;
+    public String storageType;
+    public int replicas = Integer.MIN_VALUE;
+    public long streamMaxMsgs = Long.MIN_VALUE;
+    public long streamMaxBytes = Long.MIN_VALUE;
+    public boolean fresh;
+    public String spillFile;
+    public int spillMegabytes = Integer.MIN_VALUE;
+    public String codec;
+    public int codecThreshold = Integer.MIN_VALUE;
+    public int batchRecords = Integer.MIN_VALUE;
+    public int batchBytes = Integer.MIN_VALUE;
+    public int batchLinger = Integer.MIN_VALUE;
+    public String bucket;
+    public int cacheEntries = Integer.MIN_VALUE;
+    public TuningProfile tuning = TuningProfile.DEFAULT;
+    public int monitorInterval = Integer.MIN_VALUE;
+    public String monitorFile;
+    public boolean adaptive;
+    public String concurrency;
+    public boolean timestamp;
+    public int reportInterval = Integer.MIN_VALUE;
+    public String metricsFile;
+    public String payloadHandler;
     public Headers headers;
     public boolean containedUnknown = false;
 
@@ -41,6 +83,22 @@ public class ExampleArgs {
         return headers != null && headers.size() > 0;
     }
 
+    public boolean hasMetrics() {
+        return reportInterval > 0 || metricsFile != null;
+    }
+
+    public boolean hasMonitor() {
+        return monitorInterval > 0 || monitorFile != null || adaptive;
+    }
+
+    public boolean isBatching() {
+        return batchRecords > 0 || batchBytes > 0 || batchLinger >= 0;
+    }
+
+    public boolean printMessages() {
+        return !hasMetrics() && payloadHandler == null;
+    }
+
     private ExampleArgs(String title) {
         this.title = title;
     }
@@ -73,12 +131,36 @@ public class ExampleArgs {
                     }
                 }
             }
+            validate();
         } catch (RuntimeException e) {
             System.err.println("Exception while processing command line arguments: " + e + "\n");
             usageThenExit(usageString);
         }
     }
 
+    // combinations that would otherwise only fail after a consumer or connection was created
+    private void validate() {
+        if (ackMode != null) {
+            AckManager.parseMode(ackMode);
+        }
+        if (workers > 1 && "all".equalsIgnoreCase(ackMode)) {
+            throw new IllegalArgumentException("-ack all acks messages other -wrk workers have not handled, use sync or batch");
+        }
+        if (lanes > 0 && "all".equalsIgnoreCase(ackMode)) {
+            throw new IllegalArgumentException("-ack all acks messages other -lanes lanes have not processed, use sync or batch");
+        }
+        if (keyCount > 0 && keyCount < connections) {
+            throw new IllegalArgumentException("-keys " + keyCount + " leaves some of the -conn " + connections + " connections without a key");
+        }
+        // fan-out publishes over connections of its own, without a batcher or a spill file
+        if (connections > 1 && isBatching()) {
+            throw new IllegalArgumentException("-brec, -bbyt and -blng, and a -codec that would encode the batches, are for a single connection, not -conn " + connections);
+        }
+        if (connections > 1 && spillFile != null) {
+            throw new IllegalArgumentException("-spill is for a single connection, not -conn " + connections);
+        }
+    }
+
     private void handleTrailingArg(Trail trail, String arg) {
         if (subject == null) { // subject always the first expected
             subject = arg;
@@ -135,9 +217,123 @@ public class ExampleArgs {
             case "-pull":
                 pullSize = Integer.parseInt(value);
                 break;
+            case "-pbytes":
+                maxBytes = Integer.parseInt(value);
+                break;
+            case "-pipe":
+                pipeline = Integer.parseInt(value);
+                break;
+            case "-ack":
+                ackMode = value;
+                break;
             case "-mcnt":
                 msgCount = Integer.parseInt(value);
                 break;
+            case "-psz":
+                payloadSize = Integer.parseInt(value);
+                break;
+            case "-rate":
+                rate = Integer.parseInt(value);
+                break;
+            case "-fbat":
+                flushBatch = Integer.parseInt(value);
+                break;
+            case "-conn":
+                connections = Integer.parseInt(value);
+                break;
+            case "-keys":
+                keyCount = Integer.parseInt(value);
+                break;
+            case "-lanes":
+                lanes = Integer.parseInt(value);
+                break;
+            case "-lkey":
+                laneKey = value;
+                break;
+            case "-wrk":
+                workers = Integer.parseInt(value);
+                break;
+            case "-thrd":
+                threads = value;
+                break;
+            case "-win":
+                window = Integer.parseInt(value);
+                break;
+            case "-rtry":
+                retries = Integer.parseInt(value);
+                break;
+            case "-mid":
+                msgIdPrefix = value;
+                break;
+            case "-stor":
+                storageType = value;
+                break;
+            case "-rep":
+                replicas = Integer.parseInt(value);
+                break;
+            case "-smsgs":
+                streamMaxMsgs = Long.parseLong(value);
+                break;
+            case "-sbytes":
+                streamMaxBytes = Long.parseLong(value);
+                break;
+            case "-fresh":
+                fresh = Boolean.parseBoolean(value);
+                break;
+            case "-spill":
+                spillFile = value;
+                break;
+            case "-spmb":
+                spillMegabytes = Integer.parseInt(value);
+                break;
+            case "-codec":
+                codec = value;
+                break;
+            case "-cmin":
+                codecThreshold = Integer.parseInt(value);
+                break;
+            case "-brec":
+                batchRecords = Integer.parseInt(value);
+                break;
+            case "-bbyt":
+                batchBytes = Integer.parseInt(value);
+                break;
+            case "-blng":
+                batchLinger = Integer.parseInt(value);
+                break;
+            case "-bkt":
+                bucket = value;
+                break;
+            case "-cache":
+                cacheEntries = Integer.parseInt(value);
+                break;
+            case "-tune":
+                tuning = TuningProfile.of(value);
+                break;
+            case "-mon":
+                monitorInterval = Integer.parseInt(value);
+                break;
+            case "-mcsv":
+                monitorFile = value;
+                break;
+            case "-adapt":
+                adaptive = Boolean.parseBoolean(value);
+                break;
+            case "-conc":
+                concurrency = value;
+                break;
+            case "-ts":
+                timestamp = Boolean.parseBoolean(value);
+                break;
+            case "-rpt":
+                reportInterval = Integer.parseInt(value);
+                break;
+            case "-csv":
+                metricsFile = value;
+                break;
+            case "-hdlr":
+                payloadHandler = value;
+                break;
             case "-scnt":
                 subCount = Integer.parseInt(value);
                 break;
@@ -147,6 +343,18 @@ public class ExampleArgs {
             case "-deliver":
                 deliverSubject = value;
                 break;
+            case "-hb":
+                heartbeat = Integer.parseInt(value);
+                break;
+            case "-fc":
+                flowControl = Boolean.parseBoolean(value);
+                break;
+            case "-map":
+                maxAckPending = Integer.parseInt(value);
+                break;
+            case "-ord":
+                ordered = Boolean.parseBoolean(value);
+                break;
             case "-r":
                 if (headers == null) {
                     headers = new Headers();
@@ -177,9 +385,46 @@ public class ExampleArgs {
         _banner("consumer", consumer);
         _banner("durable", durable);
         _banner("deliver", deliverSubject);
+        _banner("heartbeat", heartbeat);
+        _banner("maxAckPending", maxAckPending);
         _banner("msgCount", msgCount, msgCountUnlimitedFlag);
         _banner("subCount", subCount);
         _banner("pullSize", pullSize);
+        _banner("maxBytes", maxBytes);
+        _banner("pipeline", pipeline);
+        _banner("ackMode", ackMode);
+        _banner("payloadSize", payloadSize);
+        _banner("rate", rate);
+        _banner("flushBatch", flushBatch);
+        _banner("connections", connections);
+        _banner("keyCount", keyCount);
+        _banner("workers", workers);
+        _banner("threads", threads);
+        _banner("lanes", lanes);
+        _banner("laneKey", laneKey);
+        _banner("window", window);
+        _banner("retries", retries);
+        _banner("msgIdPrefix", msgIdPrefix);
+        _banner("storageType", storageType);
+        _banner("replicas", replicas);
+        _banner("streamMaxMsgs", streamMaxMsgs);
+        _banner("streamMaxBytes", streamMaxBytes);
+        _banner("spillFile", spillFile);
+        _banner("spillMegabytes", spillMegabytes);
+        _banner("codec", codec);
+        _banner("codecThreshold", codecThreshold);
+        _banner("batchRecords", batchRecords);
+        _banner("batchBytes", batchBytes);
+        _banner("batchLinger", batchLinger);
+        _banner("bucket", bucket);
+        _banner("cacheEntries", cacheEntries);
+        _banner("tuning", tuning == TuningProfile.DEFAULT ? null : tuning.getLabel());
+        _banner("monitorInterval", monitorInterval);
+        _banner("monitorFile", monitorFile);
+        _banner("concurrency", concurrency);
+        _banner("reportInterval", reportInterval);
+        _banner("metricsFile", metricsFile);
+        _banner("payloadHandler", payloadHandler);
         _banner("Headers", headers == null || headers.size() == 0 ? Integer.MIN_VALUE : headers.size());
         System.out.println();
     }
@@ -190,6 +435,12 @@ public class ExampleArgs {
         }
     }
 
+    private void _banner(String label, long value) {
+        if (value > Long.MIN_VALUE) {
+            System.out.format("  %s: %s\n", label, value);
+        }
+    }
+
     private void _banner(String label, int value) {
         _banner(label, value, false);
     }
@@ -271,11 +522,206 @@ public class ExampleArgs {
             return this;
         }
 
+        public Builder defaultHeartbeat(int heartbeat) {
+            ea.heartbeat = heartbeat;
+            return this;
+        }
+
+        public Builder defaultFlowControl(boolean flowControl) {
+            ea.flowControl = flowControl;
+            return this;
+        }
+
+        public Builder defaultMaxAckPending(int maxAckPending) {
+            ea.maxAckPending = maxAckPending;
+            return this;
+        }
+
         public Builder defaultPullSize(int pullSize) {
             ea.pullSize = pullSize;
             return this;
         }
 
+        public Builder defaultMaxBytes(int maxBytes) {
+            ea.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder defaultPipeline(int pipeline) {
+            ea.pipeline = pipeline;
+            return this;
+        }
+
+        public Builder defaultAckMode(String ackMode) {
+            ea.ackMode = ackMode;
+            return this;
+        }
+
+        public Builder defaultPayloadSize(int payloadSize) {
+            ea.payloadSize = payloadSize;
+            return this;
+        }
+
+        public Builder defaultRate(int rate) {
+            ea.rate = rate;
+            return this;
+        }
+
+        public Builder defaultFlushBatch(int flushBatch) {
+            ea.flushBatch = flushBatch;
+            return this;
+        }
+
+        public Builder defaultConnections(int connections) {
+            ea.connections = connections;
+            return this;
+        }
+
+        public Builder defaultKeyCount(int keyCount) {
+            ea.keyCount = keyCount;
+            return this;
+        }
+
+        public Builder defaultLanes(int lanes) {
+            ea.lanes = lanes;
+            return this;
+        }
+
+        public Builder defaultLaneKey(String laneKey) {
+            ea.laneKey = laneKey;
+            return this;
+        }
+
+        public Builder defaultWorkers(int workers) {
+            ea.workers = workers;
+            return this;
+        }
+
+        public Builder defaultThreads(String threads) {
+            ea.threads = threads;
+            return this;
+        }
+
+        public Builder defaultWindow(int window) {
+            ea.window = window;
+            return this;
+        }
+
+        public Builder defaultRetries(int retries) {
+            ea.retries = retries;
+            return this;
+        }
+
+        public Builder defaultMsgIdPrefix(String msgIdPrefix) {
+            ea.msgIdPrefix = msgIdPrefix;
+            return this;
+        }
+
+        public Builder defaultStorageType(String storageType) {
+            ea.storageType = storageType;
+            return this;
+        }
+
+        public Builder defaultReplicas(int replicas) {
+            ea.replicas = replicas;
+            return this;
+        }
+
+        public Builder defaultStreamMaxMsgs(long streamMaxMsgs) {
+            ea.streamMaxMsgs = streamMaxMsgs;
+            return this;
+        }
+
+        public Builder defaultStreamMaxBytes(long streamMaxBytes) {
+            ea.streamMaxBytes = streamMaxBytes;
+            return this;
+        }
+
+        public Builder defaultFresh(boolean fresh) {
+            ea.fresh = fresh;
+            return this;
+        }
+
+        public Builder defaultSpillFile(String spillFile) {
+            ea.spillFile = spillFile;
+            return this;
+        }
+
+        public Builder defaultSpillMegabytes(int spillMegabytes) {
+            ea.spillMegabytes = spillMegabytes;
+            return this;
+        }
+
+        public Builder defaultCodec(String codec) {
+            ea.codec = codec;
+            return this;
+        }
+
+        public Builder defaultCodecThreshold(int codecThreshold) {
+            ea.codecThreshold = codecThreshold;
+            return this;
+        }
+
+        public Builder defaultBatchRecords(int batchRecords) {
+            ea.batchRecords = batchRecords;
+            return this;
+        }
+
+        public Builder defaultBatchBytes(int batchBytes) {
+            ea.batchBytes = batchBytes;
+            return this;
+        }
+
+        public Builder defaultBatchLinger(int batchLinger) {
+            ea.batchLinger = batchLinger;
+            return this;
+        }
+
+        public Builder defaultBucket(String bucket) {
+            ea.bucket = bucket;
+            return this;
+        }
+
+        public Builder defaultCacheEntries(int cacheEntries) {
+            ea.cacheEntries = cacheEntries;
+            return this;
+        }
+
+        public Builder defaultTuning(String tuning) {
+            ea.tuning = TuningProfile.of(tuning);
+            return this;
+        }
+
+        public Builder defaultMonitorInterval(int monitorInterval) {
+            ea.monitorInterval = monitorInterval;
+            return this;
+        }
+
+        public Builder defaultMonitorFile(String monitorFile) {
+            ea.monitorFile = monitorFile;
+            return this;
+        }
+
+        public Builder defaultConcurrency(String concurrency) {
+            ea.concurrency = concurrency;
+            return this;
+        }
+
+        public Builder defaultReportInterval(int reportInterval) {
+            ea.reportInterval = reportInterval;
+            return this;
+        }
+
+        public Builder defaultMetricsFile(String metricsFile) {
+            ea.metricsFile = metricsFile;
+            return this;
+        }
+
+        public Builder defaultPayloadHandler(String payloadHandler) {
+            ea.payloadHandler = payloadHandler;
+            return this;
+        }
+
         public ExampleArgs build() {
             ea.parse(args, null, usage);
             if (ea.containedUnknown && usage != null) {
@@ -0,0 +1,254 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts messages and bytes and records publish to receive latency, for examples that
+ * should measure instead of printing every message.
+ *
+ * <p>Latency comes from the {@link ExampleUtils#PUB_NANOS_HEADER} header that NatsPub -ts true sets,
+ * so it is only meaningful when publisher and subscriber share a clock. Messages without the header,
+ * or with a value that is not a number, are counted but not timed.
+ *
+ * <p>With a report interval, a line with the rate and p50/p99/p99.9 of the last interval is printed
+ * and, with a csv file, appended to it. {@link #close()} prints the totals.
+ */
+public class ExampleMetrics implements AutoCloseable {
+    private final String label;
+    private final LongAdder msgs = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLong firstNanos = new AtomicLong();
+    private volatile long lastNanos;
+    private final LatencyHistogram recording = new LatencyHistogram();
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final Timer timer;
+    private final PrintWriter csv;
+    private long reportedMsgs;
+    private long reportedBytes;
+    private long reportedNanos;
+
+    private ExampleMetrics(Builder b) throws IOException {
+        this.label = b.label;
+        reportedNanos = System.nanoTime();
+        if (b.csvFile == null) {
+            csv = null;
+        }
+        else {
+            csv = new PrintWriter(new FileWriter(b.csvFile, true), true);
+            csv.println("time,label,msgs,msgs_per_sec,bytes_per_sec,p50_us,p99_us,p999_us,max_us");
+        }
+        if (b.reportInterval == null || b.reportInterval.isZero() || b.reportInterval.isNegative()) {
+            timer = null;
+        }
+        else {
+            timer = new Timer("metrics", true);
+            long millis = b.reportInterval.toMillis();
+            timer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    report();
+                }
+            }, millis, millis);
+        }
+    }
+
+    /**
+     * Count a received message and, if it has the publish time header, its latency.
+     * @param msg the message
+     */
+    public void record(Message msg) {
+        long now = System.nanoTime();
+        count(msg.getData() == null ? 0 : msg.getData().length, now);
+        if (msg.hasHeaders()) {
+            String pubNanos = msg.getHeaders().getFirst(ExampleUtils.PUB_NANOS_HEADER);
+            if (pubNanos != null) {
+                try {
+                    recording.record(ExampleUtils.epochNanos() - Long.parseLong(pubNanos));
+                }
+                catch (NumberFormatException e) {
+                    // a malformed header from some other publisher, count the message but don't time it
+                }
+            }
+        }
+    }
+
+    /**
+     * Count a received payload and, if it has the publish time header, its latency.
+     * @param payload the payload view
+     */
+    public void record(PayloadView payload) {
+        long now = System.nanoTime();
+        count(payload.length(), now);
+        long pubNanos = payload.headerLong(ExampleUtils.PUB_NANOS_HEADER, -1);
+        if (pubNanos >= 0) {
+            recording.record(ExampleUtils.epochNanos() - pubNanos);
+        }
+    }
+
+    /**
+     * Count a message without latency, for instance one just published.
+     * @param size the payload size
+     */
+    public void record(int size) {
+        count(size, System.nanoTime());
+    }
+
+    /**
+     * Record a latency measured some other way.
+     * @param nanos the latency
+     */
+    public void recordLatency(long nanos) {
+        recording.record(nanos);
+    }
+
+    private void count(int size, long now) {
+        firstNanos.compareAndSet(0, now);
+        lastNanos = now;
+        msgs.increment();
+        bytes.add(size);
+    }
+
+    public long getMsgs() {
+        return msgs.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * The elapsed time from the first to the last message counted.
+     * @return the nanos
+     */
+    public long getElapsedNanos() {
+        long first = firstNanos.get();
+        return first == 0 ? 0 : lastNanos - first;
+    }
+
+    /**
+     * Print and export the interval since the last report, called by the timer.
+     */
+    public synchronized void report() {
+        long now = System.nanoTime();
+        long m = msgs.sum();
+        long b = bytes.sum();
+        double seconds = Math.max(now - reportedNanos, 1) / 1_000_000_000.0;
+        double msgsPerSec = (m - reportedMsgs) / seconds;
+        double bytesPerSec = (b - reportedBytes) / seconds;
+        reportedMsgs = m;
+        reportedBytes = b;
+        reportedNanos = now;
+
+        recording.drainInto(interval);
+        System.out.printf("%s: %,d msgs, %,.0f msgs/sec, %.2f MB/sec%s\n",
+                label, m, msgsPerSec, bytesPerSec / (1024 * 1024), latencySummary(interval));
+        if (csv != null) {
+            csv.printf("%s,%s,%d,%.0f,%.0f,%.1f,%.1f,%.1f,%.1f\n", Instant.now(), label, m, msgsPerSec, bytesPerSec,
+                    micros(interval.getValueAtPercentile(50)), micros(interval.getValueAtPercentile(99)),
+                    micros(interval.getValueAtPercentile(99.9)), micros(interval.getMax()));
+        }
+        interval.drainInto(total);
+    }
+
+    /**
+     * Stop reporting and print the totals.
+     */
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.cancel();
+        }
+        recording.drainInto(total);
+        ExampleUtils.printThroughput(label, getMsgs(), getBytes(), getElapsedNanos());
+        if (total.getTotalCount() > 0) {
+            System.out.printf("Latency (us): p50 %,.1f  p90 %,.1f  p99 %,.1f  p99.9 %,.1f  max %,.1f  (%,d timed)\n",
+                    micros(total.getValueAtPercentile(50)), micros(total.getValueAtPercentile(90)),
+                    micros(total.getValueAtPercentile(99)), micros(total.getValueAtPercentile(99.9)),
+                    micros(total.getMax()), total.getTotalCount());
+        }
+        if (csv != null) {
+            csv.close();
+        }
+    }
+
+    /**
+     * The latency over the whole run, including what has not been reported yet.
+     * @return the histogram
+     */
+    public synchronized LatencyHistogram getLatency() {
+        recording.drainInto(total);
+        return total;
+    }
+
+    private static String latencySummary(LatencyHistogram h) {
+        if (h.getTotalCount() == 0) {
+            return "";
+        }
+        return String.format(", latency (us) p50 %,.1f  p99 %,.1f  p99.9 %,.1f",
+                micros(h.getValueAtPercentile(50)), micros(h.getValueAtPercentile(99)), micros(h.getValueAtPercentile(99.9)));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    public static Builder builder(String label) {
+        return new Builder(label);
+    }
+
+    public static class Builder {
+        private final String label;
+        private Duration reportInterval;
+        private String csvFile;
+
+        public Builder(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @param reportInterval how often to print the interval line, null or zero for only the totals at close
+         * @return the builder
+         */
+        public Builder reportInterval(Duration reportInterval) {
+            this.reportInterval = reportInterval;
+            return this;
+        }
+
+        /**
+         * @param csvFile a file to append the interval lines to, null for none
+         * @return the builder
+         */
+        public Builder csvFile(String csvFile) {
+            this.csvFile = csvFile;
+            return this;
+        }
+
+        public ExampleMetrics build() throws IOException {
+            return new ExampleMetrics(this);
+        }
+    }
+}
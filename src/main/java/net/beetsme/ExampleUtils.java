@@ -15,11 +15,20 @@ package net.beetsme;
 
 import io.nats.client.*;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class ExampleUtils {
 
+    // header carrying the publish time as epoch nanos, used to measure publish to receive latency
+    public static final String PUB_NANOS_HEADER = "Pub-Nanos";
+
+    private static final long EPOCH_NANOS_BASE = System.currentTimeMillis() * 1_000_000L;
+    private static final long NANO_TIME_BASE = System.nanoTime();
+
     public static String getServer(String[] args) {
         if (args.length == 1) {
             return args[0];
@@ -31,27 +40,39 @@ public class ExampleUtils {
 
     public static Options createExampleOptions(String[] args) throws Exception {
         String server = getServer(args);
-        return createExampleOptions(server, false, null);
+        return createExampleOptions(server, false, null, TuningProfile.DEFAULT);
     }
 
     public static Options createExampleOptions(String[] args, boolean allowReconnect) throws Exception {
         String server = getServer(args);
-        return createExampleOptions(server, allowReconnect, null);
+        return createExampleOptions(server, allowReconnect, null, TuningProfile.DEFAULT);
     }
 
     public static Options createExampleOptions(String server) throws Exception {
-        return createExampleOptions(server, false, null);
+        return createExampleOptions(server, false, null, TuningProfile.DEFAULT);
     }
 
     public static Options createExampleOptions(String server, ErrorListener el) throws Exception {
-        return createExampleOptions(server, false, el);
+        return createExampleOptions(server, false, el, TuningProfile.DEFAULT);
     }
 
     public static Options createExampleOptions(String server, boolean allowReconnect) throws Exception {
-        return createExampleOptions(server, allowReconnect, null);
+        return createExampleOptions(server, allowReconnect, null, TuningProfile.DEFAULT);
+    }
+
+    public static Options createExampleOptions(String server, TuningProfile profile) throws Exception {
+        return createExampleOptions(server, false, null, profile);
+    }
+
+    public static Options createExampleOptions(String server, boolean allowReconnect, TuningProfile profile) throws Exception {
+        return createExampleOptions(server, allowReconnect, null, profile);
     }
 
     public static Options createExampleOptions(String server, boolean allowReconnect, ErrorListener el) throws Exception {
+        return createExampleOptions(server, allowReconnect, el, TuningProfile.DEFAULT);
+    }
+
+    public static Options createExampleOptions(String server, boolean allowReconnect, ErrorListener el, TuningProfile profile) throws Exception {
         if (el == null) {
             el = new ErrorListener() {
                 public void exceptionOccurred(Connection conn, Exception exp) {
@@ -76,6 +97,10 @@ public class ExampleUtils {
                 .errorListener(el)
                 .connectionListener((conn, type) -> System.out.println("Status change "+type));
 
+        if (profile != null) {
+            builder = profile.apply(builder);
+        }
+
         if (!allowReconnect) {
             builder = builder.noReconnect();
         } else {
@@ -122,8 +147,8 @@ public class ExampleUtils {
     }
 
     public static ExampleArgs expectSubjectQueueAndMsgCount(String[] args, String usageString) {
-        ExampleArgs ea = new ExampleArgs(args, ExampleArgs.Trail.COUNT, usageString);
-        if (ea.containedUnknown || ea.msgCount < 1) {
+        ExampleArgs ea = new ExampleArgs(args, ExampleArgs.Trail.QUEUE_AND_COUNT, usageString);
+        if (ea.containedUnknown || ea.queue == null || ea.msgCount < 1) {
             usage(usageString);
         }
         return ea;
@@ -147,6 +172,200 @@ public class ExampleUtils {
         }
     }
 
+    /**
+     * Wall clock time in nanoseconds since the epoch, with nanoTime resolution.
+     * Only comparable across processes to the accuracy of the host clocks.
+     * @return the epoch nanos
+     */
+    public static long epochNanos() {
+        return EPOCH_NANOS_BASE + (System.nanoTime() - NANO_TIME_BASE);
+    }
+
+    /**
+     * Whether this JVM has virtual threads, Java 21 or later.
+     * @return true if it does
+     */
+    public static boolean virtualThreadsAvailable() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Create the pool that message handling is handed off to.
+     * @param workers the number of platform threads
+     * @param threads "virtual" for a virtual thread per task, otherwise platform threads
+     * @return the executor
+     */
+    public static ExecutorService createWorkerPool(int workers, String threads) {
+        if (useVirtualThreads(threads)) {
+            try {
+                // looked up reflectively so the project still builds and runs on Java 11
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, workers));
+    }
+
+    /**
+     * Start a thread for a long running loop, like a subscription waiting in nextMessage or fetch.
+     * @param name the thread name
+     * @param runnable the loop
+     * @param threads "virtual" for a virtual thread, otherwise a platform thread
+     * @return the started thread
+     */
+    public static Thread startThread(String name, Runnable runnable, String threads) {
+        if (useVirtualThreads(threads)) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builderClass.getMethod("start", Runnable.class).invoke(builder, runnable);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        Thread t = new Thread(runnable, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static volatile boolean virtualFallbackReported;
+
+    private static boolean useVirtualThreads(String threads) {
+        if (!"virtual".equals(threads)) {
+            return false;
+        }
+        if (virtualThreadsAvailable()) {
+            return true;
+        }
+        if (!virtualFallbackReported) {
+            virtualFallbackReported = true;
+            System.out.println("Virtual threads require Java 21, using platform threads.");
+        }
+        return false;
+    }
+
+    /**
+     * Create the metrics for an example, reporting every -rpt seconds and exporting to the -csv file when given.
+     * @param label the label printed with every report
+     * @param exArgs the parsed arguments
+     * @return the metrics, close them to print the totals
+     * @throws IOException if the csv file cannot be opened
+     */
+    public static ExampleMetrics createMetrics(String label, ExampleArgs exArgs) throws IOException {
+        return ExampleMetrics.builder(label)
+                .reportInterval(exArgs.reportInterval > 0 ? Duration.ofSeconds(exArgs.reportInterval) : null)
+                .csvFile(exArgs.metricsFile)
+                .build();
+    }
+
+    /**
+     * Create the slow consumer monitor for an example, sampling and printing every -mon seconds, exporting to the -mcsv file
+     * and raising pending limits with -adapt true, which alone samples every second without printing.
+     * @param exArgs the parsed arguments
+     * @return the monitor, or null when none of those were given
+     * @throws IOException if the csv file cannot be opened
+     */
+    public static SlowConsumerMonitor createSlowConsumerMonitor(ExampleArgs exArgs) throws IOException {
+        if (!exArgs.hasMonitor()) {
+            return null;
+        }
+        return SlowConsumerMonitor.builder()
+                .sampleInterval(Duration.ofSeconds(exArgs.monitorInterval > 0 ? exArgs.monitorInterval : 1))
+                .csvFile(exArgs.monitorFile)
+                .printSamples(exArgs.monitorInterval > 0 || exArgs.monitorFile != null)
+                .adaptive(exArgs.adaptive)
+                .build();
+    }
+
+    /**
+     * Create the codec layer for a publisher, encoding with the -codec codec payloads of at least -cmin bytes.
+     * @param exArgs the parsed arguments
+     * @return the layer, or null when no codec was given
+     */
+    public static CodecLayer createCodecLayer(ExampleArgs exArgs) {
+        if (exArgs.codec == null) {
+            return null;
+        }
+        return CodecLayer.builder(PayloadCodec.of(exArgs.codec))
+                .threshold(exArgs.codecThreshold < 0 ? CodecLayer.DEFAULT_THRESHOLD : exArgs.codecThreshold)
+                .build();
+    }
+
+    /**
+     * Create the codec layer for a receiver, decoding only with the comma separated -codec codecs,
+     * payloads naming any other codec are skipped.
+     * @param exArgs the parsed arguments
+     * @param maxPayload the largest payload a decode may produce, the connection's max payload
+     * @return the layer, it passes payloads without a codec header through
+     */
+    public static CodecLayer createCodecReceiver(ExampleArgs exArgs, long maxPayload) {
+        CodecLayer.Builder b = CodecLayer.builder(null)
+                .maxDecodedSize((int) Math.min(Integer.MAX_VALUE - 8, maxPayload));
+        if (exArgs.codec != null) {
+            for (String name : exArgs.codec.split(",")) {
+                b.accept(PayloadCodec.of(name.trim()));
+            }
+        }
+        return b.build();
+    }
+
+    /**
+     * Create the batching publisher for an example when any of -brec, -bbyt or -blng was given,
+     * the others keep their defaults, a linger of 0 only sends full batches.
+     * @param nc the connection
+     * @param exArgs the parsed arguments
+     * @param codec the layer that encodes each batch, null for none
+     * @param spill the spill buffer batches are published through, null for none
+     * @return the batching publisher, or null when none of those were given
+     */
+    public static BatchingPublisher createBatcher(Connection nc, ExampleArgs exArgs, CodecLayer codec, SpillBuffer spill) {
+        if (!exArgs.isBatching()) {
+            return null;
+        }
+        return BatchingPublisher.builder(nc, exArgs.subject)
+                .headers(exArgs.headers)
+                .codec(codec)
+                .spill(spill)
+                .maxRecords(exArgs.batchRecords < 1 ? BatchingPublisher.DEFAULT_MAX_RECORDS : exArgs.batchRecords)
+                .maxBytes(exArgs.batchBytes < 1 ? BatchingPublisher.DEFAULT_MAX_BYTES : exArgs.batchBytes)
+                .linger(exArgs.batchLinger < 0 ? BatchingPublisher.DEFAULT_LINGER : Duration.ofMillis(exArgs.batchLinger))
+                .timestamp(exArgs.timestamp)
+                .build();
+    }
+
+    /**
+     * Create the handler for the raw payload of each received message. It records into the metrics,
+     * after calling the -hdlr class when one is given.
+     * @param exArgs the parsed arguments
+     * @param metrics the metrics to record into
+     * @return the handler
+     * @throws ReflectiveOperationException if the -hdlr class cannot be created
+     */
+    public static PayloadHandler createPayloadHandler(ExampleArgs exArgs, ExampleMetrics metrics) throws ReflectiveOperationException {
+        if (exArgs.payloadHandler == null) {
+            return metrics::record;
+        }
+        PayloadHandler custom = (PayloadHandler) Class.forName(exArgs.payloadHandler).getDeclaredConstructor().newInstance();
+        return payload -> {
+            custom.onPayload(payload);
+            metrics.record(payload);
+        };
+    }
+
+    public static void printThroughput(String label, long msgs, long bytes, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        if (seconds <= 0) {
+            seconds = 1.0 / 1_000_000_000.0;
+        }
+        System.out.printf("%s: %,d msgs, %,d bytes in %.3f sec, %,.0f msgs/sec, %.2f MB/sec\n",
+                label, msgs, bytes, seconds, msgs / seconds, bytes / seconds / (1024 * 1024));
+    }
+
     private static void usage(String usageString) {
         System.out.println(usageString);
         System.exit(-1);
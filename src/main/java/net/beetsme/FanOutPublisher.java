@@ -0,0 +1,239 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Nats;
+import io.nats.client.Options;
+import io.nats.client.impl.Headers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Publishes over several connections at once, one {@link SustainedPublisher} and one thread per connection,
+ * so publishing is not limited by a single connection's writer thread.
+ *
+ * <p>Without keys, every connection publishes to the subject. With keys, the messages go to
+ * subject.0 through subject.(keys-1), and key k is always published on connection k % connections,
+ * so the messages of one key stay in order. There must be at least as many keys as connections,
+ * so every connection has a key. The message count and the rate are split evenly across
+ * the connections.
+ */
+public class FanOutPublisher {
+    private final Options options;
+    private final String subject;
+    private final int connections;
+    private final int keys;
+    private final Headers headers;
+    private final byte[] payload;
+    private final int msgCount;
+    private final int rate;
+    private final int flushBatch;
+    private final boolean flushInline;
+    private final boolean timestamp;
+    private final ExampleMetrics metrics;
+
+    private final List<SustainedPublisher> publishers = new ArrayList<>();
+    private long elapsedNanos;
+
+    private FanOutPublisher(Builder b) {
+        this.options = b.options;
+        this.subject = b.subject;
+        this.connections = b.connections;
+        this.keys = b.keys;
+        this.headers = b.headers;
+        this.payload = b.payload;
+        this.msgCount = b.msgCount;
+        this.rate = b.rate;
+        this.flushBatch = b.flushBatch;
+        this.flushInline = b.flushInline;
+        this.timestamp = b.timestamp;
+        this.metrics = b.metrics;
+    }
+
+    public void run() throws Exception {
+        List<Connection> ncs = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        try {
+            for (int c = 0; c < connections; c++) {
+                ncs.add(Nats.connect(options));
+            }
+            for (int c = 0; c < connections; c++) {
+                int count = msgCount / connections + (c < msgCount % connections ? 1 : 0);
+                publishers.add(SustainedPublisher.builder(ncs.get(c), subject)
+                        .subjects(subjects(c))
+                        .headers(headers)
+                        .payload(payload)
+                        .msgCount(count)
+                        .rate(rate > 0 ? Math.max(1, rate / connections) : 0)
+                        .flushBatch(flushBatch)
+                        .flushInline(flushInline)
+                        .timestamp(timestamp)
+                        .metrics(metrics)
+                        .build());
+            }
+
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (SustainedPublisher p : publishers) {
+                futures.add(pool.submit(() -> {
+                    p.run();
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+        finally {
+            pool.shutdown();
+            for (Connection nc : ncs) {
+                nc.close();
+            }
+        }
+    }
+
+    private String[] subjects(int connection) {
+        if (keys < 1) {
+            return new String[]{subject};
+        }
+        List<String> list = new ArrayList<>();
+        for (int k = connection; k < keys; k += connections) {
+            list.add(subject + "." + k);
+        }
+        return list.toArray(new String[0]);
+    }
+
+    public long getPublished() {
+        long total = 0;
+        for (SustainedPublisher p : publishers) {
+            total += p.getPublished();
+        }
+        return total;
+    }
+
+    public long getPublishedBytes() {
+        long total = 0;
+        for (SustainedPublisher p : publishers) {
+            total += p.getPublishedBytes();
+        }
+        return total;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void printThroughput() {
+        for (int c = 0; c < publishers.size(); c++) {
+            SustainedPublisher p = publishers.get(c);
+            ExampleUtils.printThroughput("  Connection " + (c + 1), p.getPublished(), p.getPublishedBytes(), p.getElapsedNanos());
+        }
+        ExampleUtils.printThroughput("Published over " + connections + " connections", getPublished(), getPublishedBytes(), elapsedNanos);
+    }
+
+    public static Builder builder(Options options, String subject) {
+        return new Builder(options, subject);
+    }
+
+    public static class Builder {
+        private final Options options;
+        private final String subject;
+        private int connections = 1;
+        private int keys;
+        private Headers headers;
+        private byte[] payload = new byte[0];
+        private int msgCount = 1;
+        private int rate;
+        private int flushBatch = SustainedPublisher.DEFAULT_FLUSH_BATCH;
+        private boolean flushInline;
+        private boolean timestamp;
+        private ExampleMetrics metrics;
+
+        public Builder(Options options, String subject) {
+            this.options = options;
+            this.subject = subject;
+        }
+
+        public Builder connections(int connections) {
+            this.connections = Math.max(1, connections);
+            return this;
+        }
+
+        /**
+         * @param keys the number of keyed subjects to spread across the connections, less than 1 for just the subject
+         * @return the builder
+         */
+        public Builder keys(int keys) {
+            this.keys = keys;
+            return this;
+        }
+
+        public Builder headers(Headers headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        public Builder payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder msgCount(int msgCount) {
+            this.msgCount = msgCount;
+            return this;
+        }
+
+        /**
+         * @param rate the target messages per second across all connections, less than 1 for unlimited
+         * @return the builder
+         */
+        public Builder rate(int rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        public Builder flushBatch(int flushBatch) {
+            this.flushBatch = flushBatch;
+            return this;
+        }
+
+        public Builder flushInline(boolean flushInline) {
+            this.flushInline = flushInline;
+            return this;
+        }
+
+        public Builder timestamp(boolean timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public Builder metrics(ExampleMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public FanOutPublisher build() {
+            if (keys > 0 && keys < connections) {
+                throw new IllegalArgumentException("At least as many keys as connections are required, " + keys + " keys for " + connections + " connections");
+            }
+            return new FanOutPublisher(this);
+        }
+    }
+}
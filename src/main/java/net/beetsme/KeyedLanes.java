@@ -0,0 +1,290 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+import io.nats.client.impl.NatsMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands messages to a fixed number of worker lanes by key, so messages with the same key are
+ * processed one at a time in the order they were pulled, and different keys are processed in parallel.
+ *
+ * <p>The key is the subject, or the value of a header, messages without the header use their subject.
+ * A message is acked by its lane once it has been processed, never before. Each lane has a bounded
+ * queue, a full lane blocks {@link #submit(Message)}, which slows the pulling down to what the lanes can do.
+ * One hot key can only use one lane, spreading the load needs many keys. A message the handler throws on
+ * is counted as failed and not acked, so the server redelivers it, and the lane goes on with the next one.
+ *
+ * <p>With an {@link AckManager} the acks of all lanes go through it. Its all mode cannot be used,
+ * acking the last message of a burst would also ack messages that other lanes have not processed yet.
+ */
+public class KeyedLanes implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final String SUBJECT_KEY = "subject";
+    public static final String HEADER_KEY_PREFIX = "header:";
+
+    private static final Message STOP = NatsMessage.builder().subject("stop").build();
+
+    private final PayloadHandler handler;
+    private final AckManager acks;
+    private final String keyHeader;
+    private final Lane[] lanes;
+
+    private class Lane implements Runnable {
+        final int index;
+        final BlockingQueue<Message> queue;
+        final PayloadView view = new PayloadView();
+        final Thread thread;
+        long processed;
+        long failed;
+        int inProcess;
+        int maxDepth;
+
+        Lane(int index, int queueSize, String threads) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = ExampleUtils.startThread("lane-" + index, this, threads);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Message m = queue.take();
+                    if (m == STOP) {
+                        return;
+                    }
+                    boolean ok = true;
+                    try {
+                        handler.onPayload(view.of(m));
+                    }
+                    catch (RuntimeException e) {
+                        ok = false;
+                    }
+                    if (ok) {
+                        if (acks == null) {
+                            m.ack();
+                        }
+                        else {
+                            acks.add(m);
+                        }
+                    }
+                    synchronized (this) {
+                        if (ok) {
+                            processed++;
+                        }
+                        else {
+                            failed++;
+                        }
+                        inProcess--;
+                        if (inProcess == 0) {
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void submit(Message m) throws InterruptedException {
+            synchronized (this) {
+                inProcess++;
+                maxDepth = Math.max(maxDepth, inProcess);
+            }
+            queue.put(m);
+        }
+
+        synchronized void awaitIdle() throws InterruptedException {
+            while (inProcess > 0) {
+                wait();
+            }
+        }
+    }
+
+    private KeyedLanes(Builder b) {
+        if (b.acks != null && b.acks.getMode() == AckManager.Mode.ALL) {
+            throw new IllegalArgumentException("Ack mode all acks messages other lanes have not processed, use sync or batch");
+        }
+        if (b.key == null || SUBJECT_KEY.equals(b.key)) {
+            keyHeader = null;
+        }
+        else if (b.key.startsWith(HEADER_KEY_PREFIX) && b.key.length() > HEADER_KEY_PREFIX.length()) {
+            keyHeader = b.key.substring(HEADER_KEY_PREFIX.length());
+        }
+        else {
+            throw new IllegalArgumentException("Key must be " + SUBJECT_KEY + " or " + HEADER_KEY_PREFIX + "<name>, not " + b.key);
+        }
+        this.handler = b.handler;
+        this.acks = b.acks;
+        lanes = new Lane[Math.max(1, b.lanes)];
+        for (int x = 0; x < lanes.length; x++) {
+            lanes[x] = new Lane(x, Math.max(1, b.queueSize), b.threads);
+        }
+    }
+
+    /**
+     * Queue a message on the lane of its key, waiting while that lane is full.
+     * @param m the message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(Message m) throws InterruptedException {
+        lanes[laneOf(key(m))].submit(m);
+    }
+
+    private String key(Message m) {
+        if (keyHeader != null && m.hasHeaders()) {
+            String value = m.getHeaders().getFirst(keyHeader);
+            if (value != null) {
+                return value;
+            }
+        }
+        return m.getSubject();
+    }
+
+    private int laneOf(String key) {
+        int h = key.hashCode();
+        // spread the bits, subjects that differ only at the end would otherwise crowd a few lanes
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    /**
+     * Wait until every submitted message has been processed and handed to the acks.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        for (Lane lane : lanes) {
+            lane.awaitIdle();
+        }
+    }
+
+    /**
+     * Process what is queued, then stop the lanes. If interrupted while waiting, the interrupt is kept.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Lane lane : lanes) {
+                lane.queue.put(STOP);
+            }
+            for (Lane lane : lanes) {
+                lane.thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public void printStats() {
+        List<String> counts = new ArrayList<>();
+        long total = 0;
+        long most = 0;
+        long failed = 0;
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                counts.add(String.format("%,d (max queued %,d, failed %,d)", lane.processed, lane.maxDepth, lane.failed));
+                total += lane.processed;
+                most = Math.max(most, lane.processed);
+                failed += lane.failed;
+            }
+        }
+        System.out.printf("%d lanes keyed by %s processed %,d messages, the busiest lane %.1f%% of them, %,d failed and left unacked\n",
+                lanes.length, keyHeader == null ? SUBJECT_KEY : HEADER_KEY_PREFIX + keyHeader, total,
+                total == 0 ? 0.0 : most * 100.0 / total, failed);
+        for (int x = 0; x < counts.size(); x++) {
+            System.out.printf("  Lane %d: %s\n", x, counts.get(x));
+        }
+    }
+
+    public static Builder builder(PayloadHandler handler) {
+        return new Builder(handler);
+    }
+
+    public static class Builder {
+        private final PayloadHandler handler;
+        private int lanes = Runtime.getRuntime().availableProcessors();
+        private String key = SUBJECT_KEY;
+        private int queueSize = DEFAULT_QUEUE_SIZE;
+        private AckManager acks;
+        private String threads;
+
+        /**
+         * @param handler the handler called on the lanes, so it must be thread safe
+         */
+        public Builder(PayloadHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * @param lanes the number of lanes, default the number of processors
+         * @return the builder
+         */
+        public Builder lanes(int lanes) {
+            this.lanes = lanes;
+            return this;
+        }
+
+        /**
+         * @param key subject, or header:&lt;name&gt; to key by the value of that header
+         * @return the builder
+         */
+        public Builder key(String key) {
+            this.key = key;
+            return this;
+        }
+
+        /**
+         * @param queueSize how many messages a lane holds before submit waits
+         * @return the builder
+         */
+        public Builder queueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * @param acks optional ack manager in sync or batch mode, null to ack each message as it is processed
+         * @return the builder
+         */
+        public Builder acks(AckManager acks) {
+            this.acks = acks;
+            return this;
+        }
+
+        /**
+         * @param threads platform or virtual, see {@link ExampleUtils#startThread}
+         * @return the builder
+         */
+        public Builder threads(String threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public KeyedLanes build() {
+            return new KeyedLanes(this);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStreamApiException;
+import io.nats.client.KeyValue;
+import io.nats.client.api.KeyValueEntry;
+import io.nats.client.api.KeyValueOperation;
+import io.nats.client.api.KeyValueWatcher;
+import io.nats.client.impl.NatsKeyValueWatchSubscription;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, local copy of a KeyValue bucket, kept current by a watch, so most reads never go to the server.
+ *
+ * <p>{@link #start(Duration)} watches the whole bucket and fills the cache with the latest value of each key,
+ * up to maxEntries. After that the watch only refreshes keys already cached. A key that is not cached is read
+ * from the server and cached, a missing or deleted key is cached as absent, and the least recently read key
+ * is evicted when the cache is full. While a read is going to the server a placeholder holds the key's place,
+ * so an update that arrives in the meantime is not lost, and a value never replaces a newer revision.
+ *
+ * <p>Staleness is how long after a write its update reached the cache, the entry's server time to now,
+ * so it needs the server and this process to share a clock. It is recorded once the initial values are loaded.
+ */
+public class KvCache implements AutoCloseable {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static class Cached {
+        byte[] value;
+        long revision;
+        boolean loading;
+    }
+
+    private final KeyValue kv;
+    private final int maxEntries;
+    // in read order for eviction, the index finds an entry for an update without counting it as a read
+    private final LinkedHashMap<String, Cached> entries;
+    private final Map<String, Cached> index = new HashMap<>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private NatsKeyValueWatchSubscription watch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
+    private long evictions;
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+    private final LatencyHistogram staleness = new LatencyHistogram();
+
+    private KvCache(Builder b) {
+        this.kv = b.kv;
+        this.maxEntries = Math.max(1, b.maxEntries);
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > maxEntries) {
+                    index.remove(eldest.getKey());
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Watch the bucket and wait for the cache to hold the latest value of each key, up to maxEntries.
+     * @param timeout how long to wait for the initial values
+     * @return true if they were loaded in time, the cache works either way
+     * @throws Exception if the watch cannot be created
+     */
+    public boolean start(Duration timeout) throws Exception {
+        watch = kv.watchAll(new KeyValueWatcher() {
+            @Override
+            public void watch(KeyValueEntry e) {
+                update(e);
+            }
+
+            @Override
+            public void endOfData() {
+                loaded.countDown();
+            }
+        });
+        return loaded.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void update(KeyValueEntry e) {
+        boolean live = loaded.getCount() == 0;
+        if (live) {
+            staleness.record(ExampleUtils.epochNanos() - epochNanos(e));
+        }
+        byte[] value = e.getOperation() == KeyValueOperation.PUT ? e.getValue() : null;
+        synchronized (this) {
+            Cached c = index.get(e.getKey());
+            if (c == null) {
+                if (live || index.size() >= maxEntries) {
+                    ignored.increment();
+                    return;
+                }
+                c = new Cached();
+                entries.put(e.getKey(), c);
+                index.put(e.getKey(), c);
+            }
+            if (e.getRevision() > c.revision) {
+                c.value = value;
+                c.revision = e.getRevision();
+                c.loading = false;
+            }
+        }
+        updates.increment();
+    }
+
+    private static long epochNanos(KeyValueEntry e) {
+        return e.getCreated().toEpochSecond() * 1_000_000_000L + e.getCreated().getNano();
+    }
+
+    /**
+     * The value of a key, from the cache, or from the server when it is not cached.
+     * @param key the key
+     * @return the value, null if the key does not exist or was deleted
+     * @throws IOException covers various communication issues with the server
+     * @throws JetStreamApiException the request had an error related to the data
+     */
+    public byte[] get(String key) throws IOException, JetStreamApiException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            Cached c = entries.get(key);
+            if (c != null && !c.loading) {
+                hits.increment();
+                hitLatency.record(System.nanoTime() - start);
+                return c.value;
+            }
+            if (c == null) {
+                c = new Cached();
+                c.loading = true;
+                entries.put(key, c);
+                index.put(key, c);
+            }
+        }
+
+        misses.increment();
+        KeyValueEntry e = kv.get(key);
+        byte[] value = e == null ? null : e.getValue();
+        synchronized (this) {
+            Cached c = index.get(key);
+            // evicted while reading, or an update already brought a newer revision
+            if (c != null && (c.loading || (e != null && e.getRevision() > c.revision))) {
+                c.value = value;
+                c.revision = e == null ? c.revision : e.getRevision();
+                c.loading = false;
+            }
+        }
+        missLatency.record(System.nanoTime() - start);
+        return value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public void printStats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        synchronized (this) {
+            System.out.printf("Cache: %,d of %,d entries, %,d reads, %,d hits (%.2f%%), %,d read from the server, %,d evicted, %,d updates applied, %,d for keys not cached\n",
+                    entries.size(), maxEntries, h + m, h, getHitRatio() * 100, m, evictions, updates.sum(), ignored.sum());
+        }
+        printLatency("  hit", hitLatency);
+        printLatency("  miss", missLatency);
+        printLatency("  staleness", staleness);
+    }
+
+    static void printLatency(String label, LatencyHistogram h) {
+        if (h.getTotalCount() == 0) {
+            return;
+        }
+        System.out.printf("%-12s (us): p50 %,.1f  p90 %,.1f  p99 %,.1f  p99.9 %,.1f  max %,.1f  (%,d)\n", label,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0, h.getTotalCount());
+    }
+
+    /**
+     * Stop watching, the cache keeps what it has but no longer sees updates.
+     */
+    @Override
+    public void close() {
+        if (watch != null) {
+            watch.unsubscribe();
+        }
+    }
+
+    public static Builder builder(KeyValue kv) {
+        return new Builder(kv);
+    }
+
+    public static class Builder {
+        private final KeyValue kv;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+        public Builder(KeyValue kv) {
+            this.kv = kv;
+        }
+
+        /**
+         * @param maxEntries the most keys cached, absent keys included
+         * @return the builder
+         */
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public KvCache build() {
+            return new KvCache(this);
+        }
+    }
+}
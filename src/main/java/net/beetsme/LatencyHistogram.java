@@ -0,0 +1,177 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log linear histogram of long values, laid out the way HdrHistogram lays out its buckets.
+ *
+ * <p>Values below 128 are counted exactly. Above that, each power of two range is split into 64 equal
+ * sub buckets, so any recorded value is reported within 1/64 (about 1.6%) of what was recorded,
+ * across the whole range of a long. Recording is one atomic increment, never allocates and is safe
+ * from any number of threads.
+ *
+ * <p>For interval reporting, {@link #drainInto(LatencyHistogram)} moves the counts recorded so far
+ * into another histogram, so recording threads never wait for the reporter.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int LENGTH = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values are recorded as 0.
+     * @param value the value, usually nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        totalCount.incrementAndGet();
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The value at a percentile, reported as the highest value equivalent to its bucket, capped at the max.
+     * @param percentile from 0 to 100
+     * @return the value, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for (int ix = 0; ix < LENGTH; ix++) {
+            seen += counts.get(ix);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(ix), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = 0;
+        double sum = 0;
+        for (int ix = 0; ix < LENGTH; ix++) {
+            long c = counts.get(ix);
+            if (c > 0) {
+                total += c;
+                sum += c * (double) medianEquivalentValue(ix);
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * Move everything recorded so far into another histogram and clear this one.
+     * Values recorded while draining land in either histogram, never in neither.
+     * @param target the histogram to add to
+     */
+    public void drainInto(LatencyHistogram target) {
+        for (int ix = 0; ix < LENGTH; ix++) {
+            if (counts.get(ix) != 0) {
+                long c = counts.getAndSet(ix, 0);
+                totalCount.addAndGet(-c);
+                target.counts.addAndGet(ix, c);
+                target.totalCount.addAndGet(c);
+            }
+        }
+        long m = max.getAndSet(0);
+        long tm = target.max.get();
+        while (m > tm && !target.max.compareAndSet(tm, m)) {
+            tm = target.max.get();
+        }
+    }
+
+    /**
+     * Add the counts of another histogram to this one, the other is unchanged.
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int ix = 0; ix < LENGTH; ix++) {
+            long c = other.counts.get(ix);
+            if (c != 0) {
+                counts.addAndGet(ix, c);
+                totalCount.addAndGet(c);
+            }
+        }
+        long m = other.max.get();
+        long tm = max.get();
+        while (m > tm && !max.compareAndSet(tm, m)) {
+            tm = max.get();
+        }
+    }
+
+    public void reset() {
+        for (int ix = 0; ix < LENGTH; ix++) {
+            counts.set(ix, 0);
+        }
+        totalCount.set(0);
+        max.set(0);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int sub = (int) (value >>> shift); // always in [SUB_BUCKET_HALF, SUB_BUCKET_COUNT)
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int ix = index - SUB_BUCKET_COUNT;
+        int shift = ix / SUB_BUCKET_HALF + 1;
+        long sub = ix % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return sub << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+
+    private static long medianEquivalentValue(int index) {
+        long low = lowestEquivalentValue(index);
+        return low + (highestEquivalentValue(index) - low) / 2;
+    }
+}
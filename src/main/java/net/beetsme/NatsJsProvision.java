@@ -0,0 +1,90 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.JetStreamManagement;
+import io.nats.client.Nats;
+import io.nats.client.api.StreamState;
+
+/**
+ * This example will create a stream for the pull examples and fill it with a known number of messages,
+ * so consumer runs always start from the same stream.
+ */
+public class NatsJsProvision {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsJsProvision [-s server] [-tune profile] [-strm stream] [-sub subject] [-stor file|memory] [-rep replicas] [-smsgs maxMsgs] [-sbytes maxBytes] [-fresh true|false] [-mcnt msgCount] [-psz payloadSize] [-win window]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-strm]  fetch-stream"
+                    + "\n   [-sub]   fetch-subject"
+                    + "\n   [-stor]  file"
+                    + "\n   [-rep]   1"
+                    + "\n   [-fresh] true"
+                    + "\n   [-mcnt]  100000"
+                    + "\n   [-psz]   128"
+                    + "\n   [-win]   " + AsyncStreamPublisher.DEFAULT_WINDOW
+                    + "\n\nWith -fresh true, an existing stream is deleted first, so the stream holds exactly the messages loaded."
+                    + "\nWith -fresh false, an existing stream is kept as is and the messages are added to it."
+                    + "\nLimits less than 1 are unlimited, -mcnt 0 only creates the stream."
+                    + "\nFor the other pull examples use -strm expires-in-stream -sub expires-in-subject and so on."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("Provision and Load Stream", args, usageString)
+                .defaultStream("fetch-stream")
+                .defaultSubject("fetch-subject")
+                .defaultStorageType("file")
+                .defaultReplicas(1)
+                .defaultFresh(true)
+                .defaultMsgCount(100_000)
+                .defaultPayloadSize(128)
+                .defaultWindow(AsyncStreamPublisher.DEFAULT_WINDOW)
+                .build();
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+
+            JetStreamManagement jsm = nc.jetStreamManagement();
+            StreamProvisioner.builder(jsm, exArgs.stream)
+                    .subjects(exArgs.subject)
+                    .storageType(exArgs.storageType)
+                    .replicas(exArgs.replicas)
+                    .maxMsgs(exArgs.streamMaxMsgs)
+                    .maxBytes(exArgs.streamMaxBytes)
+                    .fresh(exArgs.fresh)
+                    .build()
+                    .provision();
+
+            if (exArgs.msgCount > 0) {
+                AsyncStreamPublisher loader = AsyncStreamPublisher.builder(nc.jetStream(), exArgs.subject)
+                        .payload(SustainedPublisher.payload(new byte[]{'x'}, exArgs.payloadSize))
+                        .msgCount(exArgs.msgCount)
+                        .window(exArgs.window)
+                        .build();
+                loader.run();
+                loader.printStats();
+            }
+
+            StreamState state = jsm.getStreamInfo(exArgs.stream).getStreamState();
+            System.out.printf("Stream %s holds %,d messages, %,d bytes, sequence %,d to %,d\n",
+                    exArgs.stream, state.getMsgCount(), state.getByteCount(), state.getFirstSequence(), state.getLastSequence());
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Nats;
+import io.nats.client.impl.Headers;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This example will demonstrate loading a stream with asynchronous JetStream publishes,
+ * see {@link AsyncStreamPublisher}.
+ */
+public class NatsJsPub {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsJsPub [-s server] [-tune profile] [-strm stream] [-sub subject] [-m message] [-r headerKey:headerValue]* [-mcnt msgCount] [-psz payloadSize] [-win window] [-rtry retries] [-mid msgIdPrefix] [-ts true] [-codec codec [-cmin bytes]] [-rpt seconds] [-csv file]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-strm] fetch-stream"
+                    + "\n   [-sub]  fetch-subject"
+                    + "\n   [-m]    hello"
+                    + "\n   [-mcnt] 100000"
+                    + "\n   [-win]  " + AsyncStreamPublisher.DEFAULT_WINDOW
+                    + "\n   [-rtry] " + AsyncStreamPublisher.DEFAULT_RETRIES
+                    + "\n\nThe stream is created with the subject if it does not exist."
+                    + "\nUp to -win publishes wait for their ack at once, a publish not acked in time is sent again up to -rtry times."
+                    + "\nEvery message has a message id of the -mid prefix and its number, run again with the same -mid"
+                    + "\nand the server drops the messages it already has. Without -mid a new prefix is used."
+                    + "\nThe payload is the message repeated to payloadSize bytes."
+                    + "\nWith -codec, the payload is compressed as NatsPub does when it has at least -cmin bytes, default " + CodecLayer.DEFAULT_THRESHOLD + "."
+                    + "\nWith -ts true, the publish time is sent in the " + ExampleUtils.PUB_NANOS_HEADER + " header for latency measurement."
+                    + "\nWith -rpt or -csv, the ack rate and ack latency are printed every -rpt seconds and appended to the -csv file."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("JetStream Async Publish", args, usageString)
+                .defaultStream("fetch-stream")
+                .defaultSubject("fetch-subject")
+                .defaultMessage("hello")
+                .defaultMsgCount(100_000)
+                .defaultWindow(AsyncStreamPublisher.DEFAULT_WINDOW)
+                .defaultRetries(AsyncStreamPublisher.DEFAULT_RETRIES)
+                .build();
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+
+            StreamProvisioner.builder(nc.jetStreamManagement(), exArgs.stream)
+                    .subjects(exArgs.subject)
+                    .build()
+                    .provision();
+
+            byte[] payload = SustainedPublisher.payload(exArgs.message.getBytes(StandardCharsets.UTF_8), exArgs.payloadSize);
+            CodecLayer codec = ExampleUtils.createCodecLayer(exArgs);
+            Headers headers = exArgs.headers;
+            if (codec != null) {
+                headers = headers == null ? new Headers() : headers;
+                payload = codec.encode(payload, headers);
+                codec.printStats();
+            }
+            ExampleMetrics metrics = exArgs.hasMetrics() ? ExampleUtils.createMetrics("Acked", exArgs) : null;
+
+            AsyncStreamPublisher publisher = AsyncStreamPublisher.builder(nc.jetStream(), exArgs.subject)
+                    .headers(headers)
+                    .payload(payload)
+                    .msgCount(exArgs.msgCount)
+                    .window(exArgs.window)
+                    .retries(exArgs.retries)
+                    .idPrefix(exArgs.msgIdPrefix)
+                    .timestamp(exArgs.timestamp)
+                    .metrics(metrics)
+                    .build();
+            publisher.run();
+
+            if (metrics != null) {
+                metrics.close();
+            }
+            publisher.printStats();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -24,10 +24,19 @@ import java.time.Duration;
  */
 public class NatsJsPullSubExpiresInEphemeral {
     static final String usageString =
-        "\nUsage: java -cp <classpath> NatsJsPullSubExpiresInEphemeral [-s server] [-strm stream] [-sub subject]"
+        "\nUsage: java -cp <classpath> NatsJsPullSubExpiresInEphemeral [-s server] [-tune profile] [-strm stream] [-sub subject] [-mcnt msgCount] [-pull pullSize] [-pbytes maxBytes] [-pipe pullsInFlight] [-ack sync|batch|all] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass]"
             + "\n\nDefault Values:"
             + "\n   [-strm] expires-in-stream"
             + "\n   [-sub]  expires-in-subject"
+            + "\n   [-pull] 10"
+            + "\n\nWith -pipe, the pull engine keeps that many pull requests in flight and reports throughput,"
+            + "\n-pipe 1 waits for each batch to drain like the loop in this example, for comparison."
+            + "\nWith -ack batch, acks are sent in bursts or on a timer instead of one at a time, -ack all also"
+            + "\ncreates the consumer with AckPolicy.All and acks only the last message of each burst."
+            + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+            + "\nare printed every -rpt seconds and appended to the -csv file. Publish with NatsPub -ts true for latency."
+            + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying."
+            + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
             + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
             + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
             + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -37,9 +46,10 @@ public class NatsJsPullSubExpiresInEphemeral {
         ExampleArgs exArgs = ExampleArgs.builder("Pull Subscription using primitive Batch With Expire - Ephemeral", args, usageString)
             .defaultStream("expires-in-stream")
             .defaultSubject("expires-in-subject")
+            .defaultPullSize(10)
             .build();
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server))) {
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
 
             // Create our JetStream context.
             JetStream js = nc.jetStream();
@@ -48,6 +58,7 @@ public class NatsJsPullSubExpiresInEphemeral {
             // make sure the ack wait is sufficient to handle the reading and processing of the batch.
             ConsumerConfiguration cc = ConsumerConfiguration.builder()
                     .ackWait(Duration.ofMillis(2500))
+                    .ackPolicy(AckManager.ackPolicy(exArgs))
                     .build();
 
             // Build our subscription options.
@@ -56,24 +67,49 @@ public class NatsJsPullSubExpiresInEphemeral {
                     .build();
 
             JetStreamSubscription sub = js.subscribe(exArgs.subject, pullOptions);
+            exArgs.tuning.applyPendingLimits(sub);
             nc.flush(Duration.ofSeconds(1));
+            AckManager acks = AckManager.builder(sub).mode(exArgs.ackMode).build();
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+            PayloadView view = new PayloadView();
+
+            if (exArgs.pipeline > 0) {
+                // keep several pull requests in flight, -pipe 1 behaves like the stop-and-wait loop below
+                PullConsumerEngine engine = PullConsumerEngine.builder(exArgs)
+                        .build();
+                engine.run(sub, exArgs.msgCount, m -> {
+                    handler.onPayload(view.of(m));
+                    acks.add(m);
+                });
+                acks.close();
+                engine.printThroughput();
+                acks.printStats();
+                metrics.close();
+                return;
+            }
 
             // application decides size of message batch and expiry of each batch request
             // application decides whether to loop forever, or a number of batch requests
             int maxBatchRequests = 5;
             int batchRequest = 1;
             while (batchRequest <= maxBatchRequests) {
-                sub.pullExpiresIn(10, Duration.ofSeconds(1));
+                sub.pullExpiresIn(exArgs.pullSize, Duration.ofSeconds(1));
                 Message m = sub.nextMessage(Duration.ofSeconds(1)); // first message
                 while (m != null) {
                     if (m.isJetStream()) {
-                        System.out.println("batch:" + batchRequest + ". " + m);
-                        m.ack();
+                        handler.onPayload(view.of(m));
+                        if (exArgs.printMessages()) {
+                            System.out.println("batch:" + batchRequest + ". " + m);
+                        }
+                        acks.add(m);
                     }
                     m = sub.nextMessage(Duration.ofMillis(100)); // other messages should already be on the client
                 }
                 batchRequest++;
             }
+            acks.close();
+            metrics.close();
 
         }
         catch (Exception e) {
@@ -18,6 +18,7 @@ import io.nats.client.*;
 import io.nats.client.api.ConsumerConfiguration;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,12 +27,28 @@ import java.util.List;
  */
 public class NatsJsPullSubFetch {
     static final String usageString =
-            "\nUsage: java -cp <classpath> NatsJsPullSubFetch [-s server] [-strm stream] [-sub subject] [-dur durable] [-mcnt msgCount]"
+            "\nUsage: java -cp <classpath> NatsJsPullSubFetch [-s server] [-tune profile] [-strm stream] [-sub subject] [-dur durable] [-mcnt msgCount] [-pull pullSize] [-pbytes maxBytes] [-pipe pullsInFlight] [-ack sync|batch|all] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass] [-wrk workers] [-conn connections] [-thrd platform|virtual] [-lanes lanes] [-lkey subject|header:name]"
                     + "\n\nDefault Values:"
                     + "\n   [-strm] fetch-stream"
                     + "\n   [-sub]  fetch-subject"
                     + "\n   [-dur]  fetch-durable-not-required"
                     + "\n   [-mcnt] 15"
+                    + "\n   [-pull] 10"
+                    + "\n\nWith -pipe, the pull engine keeps that many pull requests in flight and reports throughput,"
+                    + "\n-pipe 1 waits for each batch to drain like the loop in this example, for comparison."
+                    + "\nWith -ack batch, acks are sent in bursts or on a timer instead of one at a time, -ack all also"
+                    + "\ncreates the consumer with AckPolicy.All and acks only the last message of each burst."
+                    + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+                    + "\nare printed every -rpt seconds and appended to the -csv file. Publish with NatsPub -ts true for latency."
+                    + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying."
+                    + "\nWith -wrk, that many workers compete for the durable's messages, spread over -conn connections,"
+                    + "\neach sizing its batches up to -pull from its own processing time, and the per-worker throughput is printed."
+                    + "\nWith -lanes, fetched messages are processed on that many lanes by key, the subject or with -lkey header:name"
+                    + "\nthat header, in order within a key and in parallel across keys. Each message is acked once its lane has processed it,"
+                    + "\nso -ack all cannot be used with -lanes."
+                    + "\nBatches published with NatsPub -brec, -bbyt or -blng are split into their records for the handler and the rates,"
+                    + "\n-mcnt still counts stream messages, and a batch is acked once all its records are processed."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
                     + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
                     + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
                     + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -43,9 +60,10 @@ public class NatsJsPullSubFetch {
                 .defaultSubject("fetch-subject")
                 .defaultDurable("fetch-durable-not-required")
                 .defaultMsgCount(15)
+                .defaultPullSize(10)
                 .build();
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server))) {
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
 
             // Create our JetStream context.
             JetStream js = nc.jetStream();
@@ -54,6 +72,7 @@ public class NatsJsPullSubFetch {
             // make sure the ack wait is sufficient to handle the reading and processing of the batch.
             ConsumerConfiguration cc = ConsumerConfiguration.builder()
                     .ackWait(Duration.ofMillis(2500))
+                    .ackPolicy(AckManager.ackPolicy(exArgs))
                     .build();
             PullSubscribeOptions pullOptions = PullSubscribeOptions.builder()
                     .durable(exArgs.durable)
@@ -61,22 +80,113 @@ public class NatsJsPullSubFetch {
                     .build();
 
             JetStreamSubscription sub = js.subscribe(exArgs.subject, pullOptions);
+            exArgs.tuning.applyPendingLimits(sub);
             nc.flush(Duration.ofSeconds(1));
+            AckManager acks = AckManager.builder(sub).mode(exArgs.ackMode).build();
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            Unbatcher unbatcher = new Unbatcher(ExampleUtils.createPayloadHandler(exArgs, metrics));
+            PayloadHandler handler = unbatcher;
+            PayloadView view = new PayloadView();
+
+            if (exArgs.pipeline > 0) {
+                // keep several pull requests in flight, -pipe 1 behaves like the stop-and-wait loop below
+                PullConsumerEngine engine = PullConsumerEngine.builder(exArgs)
+                        .build();
+                engine.run(sub, exArgs.msgCount, m -> {
+                    handler.onPayload(view.of(m));
+                    acks.add(m);
+                });
+                acks.close();
+                engine.printThroughput();
+                acks.printStats();
+                metrics.close();
+                unbatcher.printStats();
+                return;
+            }
+
+            if (exArgs.workers > 1) {
+                // competing consumers, each worker binds its own subscription to the durable created above
+                sub.unsubscribe();
+                consumeWithPool(nc, exArgs, handler);
+                acks.close();
+                metrics.close();
+                unbatcher.printStats();
+                return;
+            }
+
+            if (exArgs.lanes > 0) {
+                consumeWithLanes(sub, exArgs, handler, acks);
+                metrics.close();
+                unbatcher.printStats();
+                return;
+            }
 
             int red = 0;
             while (red < exArgs.msgCount) {
-                List<Message> list = sub.fetch(10, Duration.ofSeconds(1));
+                List<Message> list = sub.fetch(exArgs.pullSize, Duration.ofSeconds(1));
                 for (Message m : list) {
                     red++; // process message
-                    System.out.println("" + red + ". " + m);
-                    m.ack();
+                    handler.onPayload(view.of(m));
+                    if (exArgs.printMessages()) {
+                        System.out.println("" + red + ". " + m);
+                    }
+                    acks.add(m);
                 }
             }
-
+            acks.close();
+            acks.printStats();
+            metrics.close();
+            unbatcher.printStats();
         }
         catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    private static void consumeWithLanes(JetStreamSubscription sub, ExampleArgs exArgs, PayloadHandler handler, AckManager acks) throws Exception {
+        KeyedLanes lanes = KeyedLanes.builder(handler)
+                .lanes(exArgs.lanes)
+                .key(exArgs.laneKey)
+                .acks(acks)
+                .threads(exArgs.threads)
+                .build();
+        int red = 0;
+        while (red < exArgs.msgCount) {
+            for (Message m : sub.fetch(exArgs.pullSize, Duration.ofSeconds(1))) {
+                red++;
+                lanes.submit(m);
+            }
+        }
+        lanes.close();
+        acks.close();
+        lanes.printStats();
+        acks.printStats();
+    }
+
+    private static void consumeWithPool(Connection nc, ExampleArgs exArgs, PayloadHandler handler) throws Exception {
+        List<Connection> extra = new ArrayList<>();
+        try {
+            ConsumerPool.Builder builder = ConsumerPool.builder(exArgs.stream, exArgs.durable)
+                    .connection(nc)
+                    .workers(exArgs.workers)
+                    .threads(exArgs.threads)
+                    .maxBatch(exArgs.pullSize)
+                    .ackMode(exArgs.ackMode)
+                    .handler(handler);
+            for (int c = 1; c < exArgs.connections; c++) {
+                Connection ncx = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning));
+                extra.add(ncx);
+                builder.connection(ncx);
+            }
+            ConsumerPool pool = builder.build();
+            pool.run(exArgs.msgCount);
+            pool.printThroughput();
+        }
+        finally {
+            for (Connection ncx : extra) {
+                ncx.close();
+            }
+        }
+    }
 }
 
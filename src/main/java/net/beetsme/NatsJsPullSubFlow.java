@@ -0,0 +1,134 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.*;
+import io.nats.client.api.ConsumerConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * This example will demonstrate a pull subscription as a <code>Flow.Publisher</code>,
+ * where the subscriber's demand sets the size of every pull, see {@link PullFlowPublisher}.
+ */
+public class NatsJsPullSubFlow {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsJsPullSubFlow [-s server] [-tune profile] [-strm stream] [-sub subject] [-dur durable] [-mcnt msgCount] [-pull demand] [-ack sync|batch|all] [-thrd platform|virtual] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-strm] fetch-stream"
+                    + "\n   [-sub]  fetch-subject"
+                    + "\n   [-dur]  flow-durable"
+                    + "\n   [-mcnt] 15"
+                    + "\n   [-pull] 10"
+                    + "\n\nThe subscriber requests -pull messages up front, then half of that again each time it has handled half,"
+                    + "\nso there are never more than -pull messages asked for and not yet handled. New demand is pulled"
+                    + "\nright away, while the earlier messages are still being handled, so pulls are about -pull/2 messages"
+                    + "\nand a slow -hdlr shows as fewer pulls per second, with at most -pull messages waiting on the client."
+                    + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+                    + "\nare printed every -rpt seconds and appended to the -csv file."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("Pull Subscription as a Flow.Publisher", args, usageString)
+                .defaultStream("fetch-stream")
+                .defaultSubject("fetch-subject")
+                .defaultDurable("flow-durable")
+                .defaultMsgCount(15)
+                .defaultPullSize(10)
+                .build();
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+
+            // Create our JetStream context.
+            JetStream js = nc.jetStream();
+
+            // make sure the ack wait is sufficient for the subscriber to handle its demand.
+            ConsumerConfiguration cc = ConsumerConfiguration.builder()
+                    .ackWait(Duration.ofMillis(2500))
+                    .ackPolicy(AckManager.ackPolicy(exArgs))
+                    .build();
+            PullSubscribeOptions pullOptions = PullSubscribeOptions.builder()
+                    .durable(exArgs.durable)
+                    .configuration(cc)
+                    .build();
+
+            JetStreamSubscription sub = js.subscribe(exArgs.subject, pullOptions);
+            exArgs.tuning.applyPendingLimits(sub);
+            nc.flush(Duration.ofSeconds(1));
+            AckManager acks = AckManager.builder(sub).mode(exArgs.ackMode).build();
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+
+            PullFlowPublisher publisher = PullFlowPublisher.builder(sub)
+                    .maxBatch(exArgs.pullSize)
+                    .msgCount(exArgs.msgCount)
+                    .threads(exArgs.threads)
+                    .build();
+
+            CountDownLatch done = new CountDownLatch(1);
+            int demand = Math.max(1, exArgs.pullSize);
+            int refill = Math.max(1, demand / 2);
+            publisher.subscribe(new Flow.Subscriber<Message>() {
+                private final PayloadView view = new PayloadView();
+                private Flow.Subscription subscription;
+                private int handled;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(demand);
+                }
+
+                @Override
+                public void onNext(Message m) {
+                    handled++;
+                    handler.onPayload(view.of(m));
+                    if (exArgs.printMessages()) {
+                        System.out.println("" + handled + ". " + m);
+                    }
+                    acks.add(m);
+                    if (handled % refill == 0) {
+                        subscription.request(refill);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    t.printStackTrace();
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+
+            done.await();
+            acks.close();
+            System.out.printf("%,d pulls for %,d messages, %.1f per pull\n", publisher.getPulls(), publisher.getPulled(),
+                    publisher.getPulls() == 0 ? 0.0 : (double) publisher.getPulled() / publisher.getPulls());
+            metrics.close();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
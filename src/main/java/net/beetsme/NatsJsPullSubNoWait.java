@@ -14,6 +14,7 @@
 package net.beetsme;
 
 import io.nats.client.*;
+import io.nats.client.api.ConsumerConfiguration;
 
 import java.time.Duration;
 
@@ -23,12 +24,21 @@ import java.time.Duration;
  */
 public class NatsJsPullSubNoWait {
     static final String usageString =
-        "\nUsage: java -cp <classpath> NatsJsPullSubNoWait [-s server] [-strm stream] [-sub subject] [-dur durable] [-mcnt msgCount]"
+        "\nUsage: java -cp <classpath> NatsJsPullSubNoWait [-s server] [-tune profile] [-strm stream] [-sub subject] [-dur durable] [-mcnt msgCount] [-pull pullSize] [-pbytes maxBytes] [-pipe pullsInFlight] [-ack sync|batch|all] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass]"
             + "\n\nDefault Values:"
             + "\n   [-strm] expires-in-stream"
             + "\n   [-sub]  expires-in-subject"
             + "\n   [-dur]  expires-in-durable"
             + "\n   [-mcnt] 15"
+            + "\n   [-pull] 10"
+            + "\n\nWith -pipe, the pull engine keeps that many pull requests in flight and reports throughput,"
+            + "\n-pipe 1 waits for each batch to drain like the loop in this example, for comparison."
+            + "\nWith -ack batch, acks are sent in bursts or on a timer instead of one at a time, -ack all also"
+            + "\ncreates the consumer with AckPolicy.All and acks only the last message of each burst."
+            + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+            + "\nare printed every -rpt seconds and appended to the -csv file. Publish with NatsPub -ts true for latency."
+            + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying."
+            + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
             + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
             + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
             + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -40,9 +50,10 @@ public class NatsJsPullSubNoWait {
             .defaultSubject("expires-in-subject")
             .defaultDurable("expires-in-durable")
             .defaultMsgCount(15)
+            .defaultPullSize(10)
             .build();
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server))) {
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
 
             // Create our JetStream context.
             JetStream js = nc.jetStream();
@@ -50,24 +61,53 @@ public class NatsJsPullSubNoWait {
             // Build our subscription options.
             PullSubscribeOptions pullOptions = PullSubscribeOptions.builder()
                     .durable(exArgs.durable)
+                    .configuration(ConsumerConfiguration.builder()
+                            .ackPolicy(AckManager.ackPolicy(exArgs))
+                            .build())
                     .build();
 
             JetStreamSubscription sub = js.subscribe(exArgs.subject, pullOptions);
+            exArgs.tuning.applyPendingLimits(sub);
             nc.flush(Duration.ofSeconds(1));
+            AckManager acks = AckManager.builder(sub).mode(exArgs.ackMode).build();
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+            PayloadView view = new PayloadView();
+
+            if (exArgs.pipeline > 0) {
+                // keep several pull requests in flight, -pipe 1 behaves like the stop-and-wait loop below
+                PullConsumerEngine engine = PullConsumerEngine.builder(exArgs)
+                        .noWait(true)
+                        .build();
+                engine.run(sub, exArgs.msgCount, m -> {
+                    handler.onPayload(view.of(m));
+                    acks.add(m);
+                });
+                acks.close();
+                engine.printThroughput();
+                acks.printStats();
+                metrics.close();
+                return;
+            }
 
             int red = 0;
             while (red < exArgs.msgCount) {
-                sub.pullNoWait(10, Duration.ofSeconds(1));
+                sub.pullNoWait(exArgs.pullSize, Duration.ofSeconds(1));
                 Message m = sub.nextMessage(Duration.ofSeconds(1)); // first message
                 while (m != null) {
                     if (m.isJetStream()) {
                         red++; // process message
-                        System.out.println("" + red + ". " + m);
-                        m.ack();
+                        handler.onPayload(view.of(m));
+                        if (exArgs.printMessages()) {
+                            System.out.println("" + red + ". " + m);
+                        }
+                        acks.add(m);
                     }
                     m = sub.nextMessage(Duration.ofMillis(100)); // other messages should already be on the client
                 }
             }
+            acks.close();
+            metrics.close();
 
         }
         catch (Exception e) {
@@ -25,10 +25,19 @@ import java.time.Duration;
  */
 public class NatsJsPullSubOneShotEphemeral {
     static final String usageString =
-        "\nUsage: java -cp <classpath> NatsJsPullSubOneShotEphemeral [-s server] [-strm stream] [-sub subject]"
+        "\nUsage: java -cp <classpath> NatsJsPullSubOneShotEphemeral [-s server] [-tune profile] [-strm stream] [-sub subject] [-mcnt msgCount] [-pull pullSize] [-pbytes maxBytes] [-pipe pullsInFlight] [-ack sync|batch|all] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass]"
             + "\n\nDefault Values:"
             + "\n   [-strm] expires-in-stream"
             + "\n   [-sub]  expires-in-subject"
+            + "\n   [-pull] 10"
+            + "\n\nWith -pipe, the pull engine keeps that many pull requests in flight and reports throughput,"
+            + "\n-pipe 1 waits for each batch to drain like the loop in this example, for comparison."
+            + "\nWith -ack batch, acks are sent in bursts or on a timer instead of one at a time, -ack all also"
+            + "\ncreates the consumer with AckPolicy.All and acks only the last message of each burst."
+            + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+            + "\nare printed every -rpt seconds and appended to the -csv file. Publish with NatsPub -ts true for latency."
+            + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying."
+            + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
             + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
             + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
             + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -38,9 +47,10 @@ public class NatsJsPullSubOneShotEphemeral {
         ExampleArgs exArgs = ExampleArgs.builder("Pull Subscription using primitive Batch With OneShot - Ephemeral", args, usageString)
             .defaultStream("expires-in-stream")
             .defaultSubject("expires-in-subject")
+            .defaultPullSize(10)
             .build();
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server))) {
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
 
             // Create our JetStream context.
             JetStream js = nc.jetStream();
@@ -49,6 +59,7 @@ public class NatsJsPullSubOneShotEphemeral {
             // make sure the ack wait is sufficient to handle the reading and processing of the batch.
             ConsumerConfiguration cc = ConsumerConfiguration.builder()
                     .ackWait(Duration.ofMillis(2500))
+                    .ackPolicy(AckManager.ackPolicy(exArgs))
                     .build();
 
             // Build our subscription options.
@@ -57,16 +68,42 @@ public class NatsJsPullSubOneShotEphemeral {
                     .build();
 
             JetStreamSubscription sub = js.subscribe(exArgs.subject, pullOptions);
+            exArgs.tuning.applyPendingLimits(sub);
             nc.flush(Duration.ofSeconds(1));
+            AckManager acks = AckManager.builder(sub).mode(exArgs.ackMode).build();
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+            PayloadView view = new PayloadView();
 
             // Key "OneShot" pattern (nowait + expiry)
             int oneShotWait = 300; // seconds for batch request to live with no pending messages
+
+            if (exArgs.pipeline > 0) {
+                // keep several pull requests in flight, -pipe 1 behaves like the stop-and-wait loop below
+                PullConsumerEngine engine = PullConsumerEngine.builder(exArgs)
+                        .noWait(true)
+                        .expiresIn(Duration.ofSeconds(oneShotWait))
+                        .build();
+                engine.run(sub, exArgs.msgCount, m -> {
+                    handler.onPayload(view.of(m));
+                    acks.add(m);
+                });
+                acks.close();
+                engine.printThroughput();
+                acks.printStats();
+                metrics.close();
+                return;
+            }
+
             while (true) {
-                sub.pullNoWait(10, Duration.ofSeconds(oneShotWait));
+                sub.pullNoWait(exArgs.pullSize, Duration.ofSeconds(oneShotWait));
                 Message m = sub.nextMessage(Duration.ofSeconds(oneShotWait+1)); // first message
                 while (m != null) {
-                    System.out.println(m);
-                    m.ack();
+                    handler.onPayload(view.of(m));
+                    if (exArgs.printMessages()) {
+                        System.out.println(m);
+                    }
+                    acks.add(m);
                     m = sub.nextMessage(Duration.ofMillis(50)); // other messages should already be on the client
                 }
             }
@@ -0,0 +1,183 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.*;
+import io.nats.client.api.ConsumerConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This example will demonstrate a push subscription where the server sends messages as fast as
+ * max ack pending and flow control allow, with idle heartbeats so a stalled subscription is noticed,
+ * or an ordered consumer, which the client recreates from the last good sequence on any gap.
+ */
+public class NatsJsPushSub {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsJsPushSub [-s server] [-tune profile] [-strm stream] [-sub subject] [-dur durable] [-deliver deliverSubject] [-mcnt msgCount] [-hb heartbeatMillis] [-fc true|false] [-map maxAckPending] [-ord true|false] [-ack sync|batch|all] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-strm] fetch-stream"
+                    + "\n   [-sub]  fetch-subject"
+                    + "\n   [-dur]  push-durable"
+                    + "\n   [-mcnt] 15"
+                    + "\n   [-hb]   1000"
+                    + "\n   [-fc]   true"
+                    + "\n   [-map]  1000"
+                    + "\n\nThe server pushes until -map messages are waiting for their ack. With -fc true it also sends a flow control"
+                    + "\nrequest every window of bytes and stops when the client falls a window behind in answering. Every -hb milliseconds"
+                    + "\nwithout a message it sends a heartbeat, the client raises an alarm when several are missed."
+                    + "\nWith -ord true, the consumer is an ordered, ephemeral consumer with no acks, -dur, -deliver, -fc, -map and -ack are ignored."
+                    + "\nAt the end the messages received, redelivered, the flow control requests answered and the heartbeat alarms are printed."
+                    + "\nUse the same stream with NatsJsPullSubFetch, or PushPullBenchmark, to compare push with pull."
+                    + "\nWith -rpt or -csv, messages are measured instead of printed, the rate and latency percentiles"
+                    + "\nare printed every -rpt seconds and appended to the -csv file. Publish with NatsPub -ts true for latency."
+                    + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(5);
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("Push Subscription with Flow Control and Heartbeats", args, usageString)
+                .defaultStream("fetch-stream")
+                .defaultSubject("fetch-subject")
+                .defaultDurable("push-durable")
+                .defaultMsgCount(15)
+                .defaultHeartbeat(1000)
+                .defaultFlowControl(true)
+                .defaultMaxAckPending(1000)
+                .build();
+
+        AtomicLong flowControls = new AtomicLong();
+        AtomicLong heartbeatAlarms = new AtomicLong();
+        ErrorListener el = new ErrorListener() {
+            public void exceptionOccurred(Connection conn, Exception exp) {
+                System.out.println("Exception " + exp.getMessage());
+            }
+
+            public void errorOccurred(Connection conn, String type) {
+                System.out.println("Error " + type);
+            }
+
+            public void slowConsumerDetected(Connection conn, Consumer consumer) {
+                System.out.println("Slow consumer");
+            }
+
+            public void heartbeatAlarm(Connection conn, JetStreamSubscription sub, long lastStreamSequence, long lastConsumerSequence) {
+                heartbeatAlarms.incrementAndGet();
+                System.out.printf("Heartbeat alarm, last stream sequence %,d, last consumer sequence %,d\n", lastStreamSequence, lastConsumerSequence);
+            }
+
+            public void flowControlProcessed(Connection conn, JetStreamSubscription sub, String subject, FlowControlSource source) {
+                flowControls.incrementAndGet();
+            }
+        };
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, false, el, exArgs.tuning))) {
+
+            // Create our JetStream context.
+            JetStream js = nc.jetStream();
+
+            Duration heartbeat = Duration.ofMillis(exArgs.heartbeat);
+            PushSubscribeOptions pushOptions;
+            if (exArgs.ordered) {
+                // the client sets up flow control, no acks and the start sequence itself
+                pushOptions = PushSubscribeOptions.builder()
+                        .ordered(true)
+                        .configuration(ConsumerConfiguration.builder().idleHeartbeat(heartbeat).build())
+                        .build();
+            }
+            else {
+                // make sure the ack wait is sufficient for max ack pending messages to be handled.
+                ConsumerConfiguration.Builder ccb = ConsumerConfiguration.builder()
+                        .ackWait(Duration.ofMillis(2500))
+                        .ackPolicy(AckManager.ackPolicy(exArgs))
+                        .maxAckPending(exArgs.maxAckPending);
+                ConsumerConfiguration cc = exArgs.flowControl ? ccb.flowControl(heartbeat).build() : ccb.idleHeartbeat(heartbeat).build();
+                pushOptions = PushSubscribeOptions.builder()
+                        .durable(exArgs.durable)
+                        .deliverSubject(exArgs.deliverSubject)
+                        .configuration(cc)
+                        .build();
+            }
+
+            ExampleMetrics metrics = ExampleUtils.createMetrics("Received", exArgs);
+            PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+            PayloadView view = new PayloadView();
+            AtomicLong received = new AtomicLong();
+            AtomicLong redelivered = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(exArgs.msgCount);
+            AtomicReference<AckManager> acks = new AtomicReference<>();
+
+            Dispatcher d = nc.createDispatcher();
+            JetStreamSubscription sub = js.subscribe(exArgs.subject, d, m -> {
+                long count = received.incrementAndGet();
+                if (count > exArgs.msgCount) {
+                    // not acked, so the server sends these again to the next run
+                    return;
+                }
+                if (m.metaData().deliveredCount() > 1) {
+                    redelivered.incrementAndGet();
+                }
+                handler.onPayload(view.of(m));
+                if (exArgs.printMessages()) {
+                    System.out.println("" + count + ". " + m);
+                }
+                if (!exArgs.ordered) {
+                    // messages arrive as soon as the consumer exists, before the manager that needs its subscription,
+                    // ack those right away so they are not redelivered
+                    AckManager am = acks.get();
+                    if (am == null) {
+                        m.ack();
+                    }
+                    else {
+                        am.add(m);
+                    }
+                }
+                done.countDown();
+            }, false, pushOptions);
+            exArgs.tuning.applyPendingLimits(sub);
+            if (!exArgs.ordered) {
+                acks.set(AckManager.builder(sub).mode(exArgs.ackMode).build());
+            }
+            nc.flush(Duration.ofSeconds(1));
+
+            // wait for all of them, or until nothing more arrives
+            long last = -1;
+            while (!done.await(IDLE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS) && received.get() != last) {
+                last = received.get();
+            }
+            d.unsubscribe(sub);
+            if (acks.get() != null) {
+                acks.get().close();
+            }
+
+            long handled = Math.min(received.get(), exArgs.msgCount);
+            System.out.printf("%,d received, %,d redelivered (%.2f%%), %,d flow control requests answered, %,d heartbeat alarms\n",
+                    handled, redelivered.get(), handled == 0 ? 0.0 : redelivered.get() * 100.0 / handled,
+                    flowControls.get(), heartbeatAlarms.get());
+            metrics.close();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.KeyValue;
+import io.nats.client.KeyValueManagement;
+import io.nats.client.Nats;
+import io.nats.client.api.KeyValueConfiguration;
+import io.nats.client.api.StorageType;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This example will demonstrate looking keys up in a KeyValue bucket through a local cache kept current
+ * by a watch, see {@link KvCache}, next to the same lookups with kv.get, while another thread keeps updating keys.
+ */
+public class NatsKv {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsKv [-s server] [-tune profile] [-bkt bucket] [-keys keyCount] [-psz valueSize] [-cache maxEntries] [-rate updatesPerSec] [-mcnt lookups]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-bkt]   config"
+                    + "\n   [-keys]  1000"
+                    + "\n   [-psz]   128"
+                    + "\n   [-cache] " + KvCache.DEFAULT_MAX_ENTRIES
+                    + "\n   [-rate]  100"
+                    + "\n   [-mcnt]  20000"
+                    + "\n\nThe bucket is created in memory if it does not exist and keyCount keys, key.0 and so on, are put."
+                    + "\nThe cache watches the bucket and holds up to -cache keys. While a thread updates random keys at -rate per second,"
+                    + "\n-mcnt lookups, 80% of them on the first 20% of the keys, go through the cache and then straight to kv.get."
+                    + "\nPrinted for each: lookups per second and latency percentiles, and for the cache the hit ratio, evictions"
+                    + "\nand staleness, how long after a write the cache had it. Make -cache smaller than -keys to see misses and evictions."
+                    + "\nWith -tune, the connection uses that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    private static final String KEY_PREFIX = "key.";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("KeyValue Read-Through Cache", args, usageString)
+                .defaultBucket("config")
+                .defaultKeyCount(1000)
+                .defaultPayloadSize(128)
+                .defaultCacheEntries(KvCache.DEFAULT_MAX_ENTRIES)
+                .defaultRate(100)
+                .defaultMsgCount(20_000)
+                .build();
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+            KeyValueManagement kvm = nc.keyValueManagement();
+            if (!kvm.getBucketNames().contains(exArgs.bucket)) {
+                kvm.create(KeyValueConfiguration.builder()
+                        .name(exArgs.bucket)
+                        .storageType(StorageType.Memory)
+                        .build());
+            }
+            KeyValue kv = nc.keyValue(exArgs.bucket);
+            byte[] value = SustainedPublisher.payload(new byte[]{'v'}, exArgs.payloadSize);
+            for (int x = 0; x < exArgs.keyCount; x++) {
+                kv.put(KEY_PREFIX + x, value);
+            }
+            System.out.printf("\nPut %,d keys of %,d bytes in bucket '%s', server is %s\n", exArgs.keyCount, value.length, exArgs.bucket, exArgs.server);
+
+            try (KvCache cache = KvCache.builder(kv).maxEntries(exArgs.cacheEntries).build()) {
+                long start = System.nanoTime();
+                boolean loaded = cache.start(Duration.ofSeconds(30));
+                System.out.printf("Cache %s %,d keys in %,.1f ms\n\n", loaded ? "loaded" : "is still loading after", cache.size(), (System.nanoTime() - start) / 1_000_000.0);
+
+                AtomicLong updated = new AtomicLong();
+                Thread updater = ExampleUtils.startThread("kv-updater", () -> update(kv, exArgs, value, updated), "platform");
+
+                LatencyHistogram cached = new LatencyHistogram();
+                long cachedNanos = lookups(exArgs, cached, key -> cache.get(key));
+                LatencyHistogram direct = new LatencyHistogram();
+                long directNanos = lookups(exArgs, direct, kv::get);
+
+                updater.interrupt();
+                updater.join();
+
+                System.out.printf("%-8s %10s %14s %10s %10s %10s %10s %10s\n", "lookups", "count", "lookups/sec", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+                printRow("cache", cached, cachedNanos);
+                printRow("kv.get", direct, directNanos);
+                System.out.printf("\n%,d updates while looking up\n", updated.get());
+                cache.printStats();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    interface Lookup {
+        Object get(String key) throws Exception;
+    }
+
+    private static long lookups(ExampleArgs exArgs, LatencyHistogram latency, Lookup lookup) throws Exception {
+        long start = System.nanoTime();
+        for (int x = 0; x < exArgs.msgCount; x++) {
+            String key = KEY_PREFIX + randomKey(exArgs.keyCount);
+            long t = System.nanoTime();
+            lookup.get(key);
+            latency.record(System.nanoTime() - t);
+        }
+        return System.nanoTime() - start;
+    }
+
+    // 80% of the lookups go to the first 20% of the keys
+    private static int randomKey(int keyCount) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int hot = Math.max(1, keyCount / 5);
+        return r.nextInt(100) < 80 ? r.nextInt(hot) : r.nextInt(keyCount);
+    }
+
+    private static void update(KeyValue kv, ExampleArgs exArgs, byte[] value, AtomicLong updated) {
+        long nanosPerUpdate = exArgs.rate > 0 ? 1_000_000_000L / exArgs.rate : 0;
+        if (nanosPerUpdate == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                kv.put(KEY_PREFIX + ThreadLocalRandom.current().nextInt(exArgs.keyCount), value);
+            }
+            catch (Exception e) {
+                // closing or interrupted, nothing more to update
+                return;
+            }
+            long wait = start + (updated.incrementAndGet() * nanosPerUpdate) - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private static void printRow(String label, LatencyHistogram h, long elapsedNanos) {
+        System.out.printf("%-8s %,10d %,14.0f %,10.1f %,10.1f %,10.1f %,10.1f %,10.1f\n", label, h.getTotalCount(),
+                h.getTotalCount() / Math.max(elapsedNanos / 1_000_000_000.0, 1e-9),
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+    }
+}
@@ -15,6 +15,7 @@ package net.beetsme;
 
 import io.nats.client.Connection;
 import io.nats.client.Nats;
+import io.nats.client.impl.Headers;
 import io.nats.client.impl.NatsMessage;
 
 import java.nio.charset.StandardCharsets;
@@ -22,7 +23,25 @@ import java.time.Duration;
 
 public class NatsPub {
     static final String usageString =
-            "\nUsage: java -cp <classpath> NatsPub [-s server] [-r headerKey:headerValue]* <subject> <message>\n"
+            "\nUsage: java -cp <classpath> NatsPub [-s server] [-tune profile] [-r headerKey:headerValue]* [-mcnt msgCount [-psz payloadSize] [-rate msgsPerSec] [-fbat flushBatch] [-ts true] [-rpt seconds] [-csv file] [-conn connections [-keys keyCount]] [-spill file [-spmb megabytes]]] [-codec codec [-cmin bytes]] [-brec records] [-bbyt bytes] [-blng lingerMillis] <subject> <message>\n"
+                    + "\nWith -mcnt, publishes msgCount messages and reports the achieved rate."
+                    + "\nThe payload is the message repeated to payloadSize bytes, a rate less than 1 is unlimited"
+                    + "\nand the connection is flushed every flushBatch messages, default " + SustainedPublisher.DEFAULT_FLUSH_BATCH + "."
+                    + "\nWith -ts true, the publish time is sent in the " + ExampleUtils.PUB_NANOS_HEADER + " header for latency measurement."
+                    + "\nWith -rpt or -csv, the publish rate is printed every -rpt seconds and appended to the -csv file."
+                    + "\nWith -conn, publishes over that many connections, one thread each, and reports each connection's rate."
+                    + "\nWith -keys, publishes to <subject>.0 through <subject>.(keyCount-1), key k always on connection k % connections."
+                    + "\nWith -spill, the connection reconnects forever and messages it cannot take during an outage go to that"
+                    + "\nmemory-mapped file, -spmb megabytes at most, default " + SpillBuffer.DEFAULT_CAPACITY / (1024 * 1024) + ", and are replayed in order once it is back."
+                    + "\nMessages left in the file are replayed by the next run with the same file, -spill is for a single connection."
+                    + "\nWith -codec deflate, deflate-max or a PayloadCodec class, payloads of at least -cmin bytes, default " + CodecLayer.DEFAULT_THRESHOLD + ","
+                    + "\nare compressed and marked with the " + PayloadCodec.HEADER + " header, NatsSub given the same -codec decodes them. The payload is the same"
+                    + "\nfor every message, so it is encoded once, the ratio and the time it took are printed."
+                    + "\nWith -brec, -bbyt or -blng, each message is a record packed into batch messages, sent at -brec records, default " + BatchingPublisher.DEFAULT_MAX_RECORDS + ","
+                    + "\nbefore -bbyt bytes, default " + BatchingPublisher.DEFAULT_MAX_BYTES + ", or when the first record has waited -blng milliseconds, default "
+                    + BatchingPublisher.DEFAULT_LINGER.toMillis() + ". Each batch carries the -r headers, is encoded as a whole with -codec"
+                    + "\nand goes through the -spill file. NatsSub and NatsJsPullSubFetch split them again, batching is for a single connection.\n"
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
                     + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
                     + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
                     + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -31,15 +50,100 @@ public class NatsPub {
     public static void main(String[] args) {
         ExampleArgs exArgs = ExampleUtils.expectSubjectAndMessage(args, usageString);
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, false))) {
+        // fan-out opens its own connections, a null resource is never closed
+        boolean fanOutOnly = exArgs.msgCount > 0 && exArgs.connections > 1;
+        try (Connection nc = fanOutOnly ? null : Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.spillFile != null, exArgs.tuning))) {
 
             String hdrNote = exArgs.hasHeaders() ? " with " + exArgs.headers.size() + " header(s)" : "";
+
+            CodecLayer codec = ExampleUtils.createCodecLayer(exArgs);
+            Headers headers = codec == null || exArgs.headers != null ? exArgs.headers : new Headers();
+
+            if (exArgs.msgCount > 0) {
+                byte[] payload = SustainedPublisher.payload(exArgs.message.getBytes(StandardCharsets.UTF_8), exArgs.payloadSize);
+                if (codec != null && !exArgs.isBatching()) {
+                    payload = codec.encode(payload, headers);
+                    codec.printStats();
+                }
+                int flushBatch = exArgs.flushBatch == Integer.MIN_VALUE ? SustainedPublisher.DEFAULT_FLUSH_BATCH : exArgs.flushBatch;
+                System.out.printf("\nPublishing %d messages of %d bytes to '%s'%s, server is %s\n\n",
+                        exArgs.msgCount, payload.length, exArgs.subject, hdrNote, exArgs.server);
+
+                ExampleMetrics metrics = exArgs.hasMetrics() ? ExampleUtils.createMetrics("Published", exArgs) : null;
+
+                if (fanOutOnly) {
+                    FanOutPublisher fanOut = FanOutPublisher.builder(ExampleUtils.createExampleOptions(exArgs.server, false, exArgs.tuning), exArgs.subject)
+                            .connections(exArgs.connections)
+                            .keys(exArgs.keyCount)
+                            .headers(headers)
+                            .payload(payload)
+                            .msgCount(exArgs.msgCount)
+                            .rate(exArgs.rate)
+                            .flushBatch(flushBatch)
+                            .flushInline(exArgs.tuning.flushInline())
+                            .timestamp(exArgs.timestamp)
+                            .metrics(metrics)
+                            .build();
+                    fanOut.run();
+                    if (metrics != null) {
+                        metrics.close();
+                    }
+                    fanOut.printThroughput();
+                    return;
+                }
+
+                SpillBuffer spill = exArgs.spillFile == null ? null : SpillBuffer.builder(nc, exArgs.spillFile)
+                        .capacity(exArgs.spillMegabytes < 1 ? SpillBuffer.DEFAULT_CAPACITY : exArgs.spillMegabytes * 1024L * 1024L)
+                        .build();
+                // batches are encoded as a whole, the records in them are not
+                BatchingPublisher batcher = ExampleUtils.createBatcher(nc, exArgs, codec, spill);
+                SustainedPublisher publisher = SustainedPublisher.builder(nc, exArgs.subject)
+                        .headers(headers)
+                        .payload(payload)
+                        .msgCount(exArgs.msgCount)
+                        .rate(exArgs.rate)
+                        .flushBatch(flushBatch)
+                        .flushInline(exArgs.tuning.flushInline())
+                        .timestamp(exArgs.timestamp)
+                        .metrics(metrics)
+                        .spill(spill)
+                        .batcher(batcher)
+                        .build();
+                publisher.run();
+                if (batcher != null) {
+                    batcher.close();
+                    batcher.printStats();
+                    if (codec != null) {
+                        codec.printStats();
+                    }
+                }
+                if (spill != null) {
+                    if (!spill.drain(Duration.ofMinutes(1))) {
+                        System.out.println("The connection did not come back, the rest stays in " + exArgs.spillFile);
+                    }
+                    spill.printStats();
+                    spill.close();
+                }
+                if (metrics == null) {
+                    ExampleUtils.printThroughput("Published", publisher.getPublished(), publisher.getPublishedBytes(), publisher.getElapsedNanos());
+                }
+                else {
+                    metrics.close();
+                }
+                return;
+            }
+
             System.out.printf("\nPublishing '%s' to '%s'%s, server is %s\n\n", exArgs.message, exArgs.subject, hdrNote, exArgs.server);
 
+            byte[] data = exArgs.message.getBytes(StandardCharsets.UTF_8);
+            if (codec != null) {
+                data = codec.encode(data, headers);
+                codec.printStats();
+            }
             nc.publish(NatsMessage.builder()
                     .subject(exArgs.subject)
-                    .headers(exArgs.headers)
-                    .data(exArgs.message, StandardCharsets.UTF_8)
+                    .headers(headers)
+                    .data(data)
                     .build());
 
             nc.flush(Duration.ofSeconds(5));
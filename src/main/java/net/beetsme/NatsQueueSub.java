@@ -0,0 +1,156 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import io.nats.client.Nats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * This example will demonstrate a queue group growing from one member to many,
+ * how evenly the server spreads the messages over the members and what that does to throughput.
+ */
+public class NatsQueueSub {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsQueueSub [-s server] [-tune profile] [-scnt members] [-conn connections] [-psz payloadSize] <subject> <queue> <msgCount>\n"
+                    + "\nRuns the queue group with 1, 2, 4 and so on up to -scnt members, default 8, each member a dispatcher of its own."
+                    + "\nFor every size msgCount messages are published to the subject and the table shows the aggregate"
+                    + "\nmessages per second and how the messages were spread: the fewest and the most one member got,"
+                    + "\nthe most over the fewest, and the coefficient of variation, the standard deviation over the mean."
+                    + "\nThe members are spread over -conn connections, by default each member has a connection of its own."
+                    + "\nWith -tune, the connections use that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
+                    + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL for user/pass/token authentication.\n";
+
+    private static final int DEFAULT_MEMBERS = 8;
+    private static final int DEFAULT_PAYLOAD_SIZE = 128;
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(5);
+
+    static class Result {
+        int members;
+        int connections;
+        long received;
+        long elapsedNanos;
+        long min = Long.MAX_VALUE;
+        long max;
+        double cv;
+    }
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleUtils.expectSubjectQueueAndMsgCount(args, usageString);
+        int maxMembers = exArgs.subCount < 1 ? DEFAULT_MEMBERS : exArgs.subCount;
+        int payloadSize = exArgs.payloadSize < 1 ? DEFAULT_PAYLOAD_SIZE : exArgs.payloadSize;
+
+        System.out.printf("\nPublishing %,d messages of %,d bytes to '%s' for queue '%s' of 1 to %d members, server is %s\n",
+                exArgs.msgCount, payloadSize, exArgs.subject, exArgs.queue, maxMembers, exArgs.server);
+
+        List<Result> results = new ArrayList<>();
+        try (Connection pubNc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+            byte[] payload = SustainedPublisher.payload(new byte[]{'x'}, payloadSize);
+            for (int members = 1; ; members = Math.min(members * 2, maxMembers)) {
+                results.add(run(exArgs, pubNc, payload, members));
+                if (members == maxMembers) {
+                    break;
+                }
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.printf("\n%7s %11s %12s %12s %10s %10s %10s %8s\n",
+                "members", "connections", "received", "msgs/sec", "fewest", "most", "most/few", "cv %");
+        for (Result r : results) {
+            System.out.printf("%,7d %,11d %,12d %,12.0f %,10d %,10d %10.2f %8.1f\n",
+                    r.members, r.connections, r.received, r.received / Math.max(r.elapsedNanos / 1_000_000_000.0, 1e-9),
+                    r.min, r.max, r.min == 0 ? Double.POSITIVE_INFINITY : (double) r.max / r.min, r.cv * 100);
+        }
+    }
+
+    private static Result run(ExampleArgs exArgs, Connection pubNc, byte[] payload, int members) throws Exception {
+        Result result = new Result();
+        result.members = members;
+        result.connections = exArgs.connections < 1 ? members : Math.min(exArgs.connections, members);
+
+        List<Connection> ncs = new ArrayList<>();
+        AtomicLong[] counts = new AtomicLong[members];
+        AtomicLong received = new AtomicLong();
+        LongAccumulator lastReceived = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        CountDownLatch done = new CountDownLatch(exArgs.msgCount);
+        try {
+            for (int c = 0; c < result.connections; c++) {
+                ncs.add(Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning)));
+            }
+            for (int m = 0; m < members; m++) {
+                AtomicLong count = new AtomicLong();
+                counts[m] = count;
+                Dispatcher d = ncs.get(m % ncs.size()).createDispatcher(msg -> {
+                    count.incrementAndGet();
+                    received.incrementAndGet();
+                    lastReceived.accumulate(System.nanoTime());
+                    done.countDown();
+                });
+                exArgs.tuning.applyPendingLimits(d);
+                d.subscribe(exArgs.subject, exArgs.queue);
+            }
+            for (Connection nc : ncs) {
+                nc.flush(Duration.ofSeconds(5));
+            }
+
+            long start = System.nanoTime();
+            SustainedPublisher.builder(pubNc, exArgs.subject)
+                    .payload(payload)
+                    .msgCount(exArgs.msgCount)
+                    .build()
+                    .run();
+
+            // wait for all of them, or until nothing more arrives, messages dropped as slow consumer never will
+            long last = -1;
+            while (!done.await(IDLE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS) && received.get() != last) {
+                last = received.get();
+            }
+            // the clock stops at the last message, not after the idle wait that found nothing more
+            result.elapsedNanos = received.get() == 0 ? System.nanoTime() - start : lastReceived.get() - start;
+        }
+        finally {
+            for (Connection nc : ncs) {
+                nc.close();
+            }
+        }
+
+        result.received = received.get();
+        double mean = (double) result.received / members;
+        double squares = 0;
+        for (AtomicLong count : counts) {
+            long n = count.get();
+            result.min = Math.min(result.min, n);
+            result.max = Math.max(result.max, n);
+            squares += (n - mean) * (n - mean);
+        }
+        result.cv = mean == 0 ? 0 : Math.sqrt(squares / members) / mean;
+        System.out.printf("%d member(s): %,d received in %,.1f ms\n", members, result.received, result.elapsedNanos / 1_000_000.0);
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Nats;
+
+/**
+ * This example will demonstrate publishing structured records in a binary layout instead of Strings,
+ * each serialized straight into a pooled array, see {@link RecordPublisher} and {@link Quote}.
+ */
+public class NatsRecordPub {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsRecordPub [-s server] [-tune profile] [-keys symbols] [-fbat flushBatch] [-rpt seconds] [-csv file] <subject> <msgCount>\n"
+                    + "\nPublishes msgCount quotes, sequence, time, price, size and symbol, cycling over -keys symbols, default " + NatsRecordPub.DEFAULT_SYMBOLS + "."
+                    + "\nEach quote is written into an array from a pool, the arrays go back to the pool after the flush"
+                    + "\nevery flushBatch messages, default " + SustainedPublisher.DEFAULT_FLUSH_BATCH + ". The rate and the pool reuse are printed at the end."
+                    + "\nRead them in place with NatsSub -hdlr net.beetsme.QuoteHandler, RecordBenchmark compares this with String payloads."
+                    + "\nWith -rpt or -csv, the publish rate is printed every -rpt seconds and appended to the -csv file.\n"
+                    + "\nWith -tune, the connection uses that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
+                    + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL for user/pass/token authentication.\n";
+
+    static final int DEFAULT_SYMBOLS = 16;
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleUtils.expectSubjectAndMsgCount(args, usageString);
+        int symbolCount = exArgs.keyCount < 1 ? DEFAULT_SYMBOLS : exArgs.keyCount;
+        int flushBatch = exArgs.flushBatch == Integer.MIN_VALUE ? SustainedPublisher.DEFAULT_FLUSH_BATCH : exArgs.flushBatch;
+
+        String[] symbols = new String[symbolCount];
+        for (int x = 0; x < symbolCount; x++) {
+            symbols[x] = "SYM" + x;
+        }
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning))) {
+            System.out.printf("\nPublishing %,d quotes over %d symbols to '%s', server is %s\n\n",
+                    exArgs.msgCount, symbolCount, exArgs.subject, exArgs.server);
+
+            ExampleMetrics metrics = exArgs.hasMetrics() ? ExampleUtils.createMetrics("Published", exArgs) : null;
+            RecordPublisher<Quote> publisher = RecordPublisher.builder(nc, exArgs.subject, Quote.CODEC)
+                    .flushBatch(flushBatch)
+                    .build();
+
+            // one quote is filled for every record, the publisher only keeps its bytes
+            Quote quote = new Quote();
+            long start = System.nanoTime();
+            for (int x = 0; x < exArgs.msgCount; x++) {
+                quote.set(x, System.currentTimeMillis(), 100 + (x % 1000) / 100.0, 1 + x % 500, symbols[x % symbolCount]);
+                publisher.publish(quote);
+                if (metrics != null) {
+                    metrics.record(Quote.CODEC.size(quote));
+                }
+            }
+            publisher.flush();
+            long elapsed = System.nanoTime() - start;
+
+            if (metrics == null) {
+                ExampleUtils.printThroughput("Published", publisher.getPublished(), publisher.getPublishedBytes(), elapsed);
+            }
+            else {
+                metrics.close();
+            }
+            publisher.getPool().printStats();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
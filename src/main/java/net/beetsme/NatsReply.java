@@ -0,0 +1,95 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import io.nats.client.Nats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NatsReply {
+    static final String DEFAULT_POOL_QUEUE = "reply-pool";
+
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsReply [-s server] [-tune profile] [-q queue] [-wrk repliers] [-rpt seconds] [-csv file] <subject> <msgCount>\n"
+                    + "\nReplies to msgCount requests with the request's own payload, then exits."
+                    + "\nWith -wrk, that many repliers, each with its own connection and dispatcher, share the requests"
+                    + "\nas a queue group, the -q queue or " + DEFAULT_POOL_QUEUE + ", and the count each one answered is printed."
+                    + "\nWith -rpt or -csv, the reply rate is printed every -rpt seconds and appended to the -csv file.\n"
+                    + "\nWith -tune, the connections use that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
+                    + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL for user/pass/token authentication.\n";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleUtils.expectSubjectAndMsgCount(args, usageString);
+
+        int repliers = Math.max(1, exArgs.workers);
+        String queue = exArgs.queue == null && repliers > 1 ? DEFAULT_POOL_QUEUE : exArgs.queue;
+        System.out.printf("\nReplying to %,d requests on '%s'%s with %d replier(s), server is %s\n\n",
+                exArgs.msgCount, exArgs.subject, queue == null ? "" : " in queue '" + queue + "'", repliers, exArgs.server);
+
+        List<Connection> ncs = new ArrayList<>();
+        List<AtomicLong> counts = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(exArgs.msgCount);
+        try (ExampleMetrics metrics = ExampleUtils.createMetrics("Replied", exArgs)) {
+            for (int r = 0; r < repliers; r++) {
+                Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, true, exArgs.tuning));
+                ncs.add(nc);
+                AtomicLong count = new AtomicLong();
+                counts.add(count);
+                Dispatcher d = nc.createDispatcher(msg -> {
+                    if (msg.getReplyTo() != null) {
+                        nc.publish(msg.getReplyTo(), msg.getData());
+                        metrics.record(msg);
+                        count.incrementAndGet();
+                        done.countDown();
+                    }
+                });
+                exArgs.tuning.applyPendingLimits(d);
+                if (queue == null) {
+                    d.subscribe(exArgs.subject);
+                }
+                else {
+                    d.subscribe(exArgs.subject, queue);
+                }
+                nc.flush(Duration.ofSeconds(5));
+            }
+
+            done.await();
+            for (int r = 0; r < repliers; r++) {
+                System.out.printf("  Replier %d: %,d replies\n", r + 1, counts.get(r).get());
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        finally {
+            for (Connection nc : ncs) {
+                try {
+                    nc.close();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
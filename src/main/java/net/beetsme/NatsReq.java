@@ -0,0 +1,85 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.Nats;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+public class NatsReq {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsReq [-s server] [-tune profile] [-mcnt requests [-conc concurrency[,concurrency]*] [-psz payloadSize]] <subject> <message>\n"
+                    + "\nWithout -mcnt, sends one request and prints the reply."
+                    + "\nWith -mcnt, sends that many requests for each concurrency, keeping that many outstanding with the async"
+                    + "\nrequest API, and prints the throughput and latency percentiles for each, -conc 1,8,64 for a sweep."
+                    + "\nThe payload is the message repeated to payloadSize bytes. Reply with NatsReply, -wrk for a queue group pool.\n"
+                    + "\nWith -tune, the connection uses that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
+                    + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL for user/pass/token authentication.\n";
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleUtils.expectSubjectAndMessage(args, usageString);
+
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, false, exArgs.tuning))) {
+
+            if (exArgs.msgCount < 1) {
+                System.out.printf("\nSending request '%s' on '%s', server is %s\n\n", exArgs.message, exArgs.subject, exArgs.server);
+                Message reply = nc.request(exArgs.subject, exArgs.message.getBytes(StandardCharsets.UTF_8), RequestLoad.DEFAULT_TIMEOUT);
+                if (reply == null) {
+                    System.out.println("No reply within " + RequestLoad.DEFAULT_TIMEOUT.toMillis() + "ms");
+                }
+                else {
+                    System.out.printf("Reply: %s\n", new String(reply.getData(), StandardCharsets.UTF_8));
+                }
+                return;
+            }
+
+            byte[] payload = SustainedPublisher.payload(exArgs.message.getBytes(StandardCharsets.UTF_8), exArgs.payloadSize);
+            String[] levels = (exArgs.concurrency == null ? "1" : exArgs.concurrency).split(",");
+            System.out.printf("\nSending %,d requests of %d bytes on '%s' at concurrency %s, server is %s\n\n",
+                    exArgs.msgCount, payload.length, exArgs.subject, String.join(", ", levels), exArgs.server);
+
+            System.out.printf("%11s %10s %8s %12s %10s %10s %10s %10s %10s\n",
+                    "concurrency", "replies", "failed", "req/sec", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+            for (String level : levels) {
+                RequestLoad load = RequestLoad.builder(nc, exArgs.subject)
+                        .payload(payload)
+                        .requests(exArgs.msgCount)
+                        .concurrency(Integer.parseInt(level.trim()))
+                        .build();
+                load.run();
+                if (load.getUnfinished() > 0) {
+                    System.out.printf("%,11d %,10d %,8d %,d requests still outstanding, no rate\n",
+                            load.getConcurrency(), load.getReplies(), load.getFailed(), load.getUnfinished());
+                    continue;
+                }
+                LatencyHistogram h = load.getLatency();
+                System.out.printf("%,11d %,10d %,8d %,12.0f %,10.1f %,10.1f %,10.1f %,10.1f %,10.1f\n",
+                        load.getConcurrency(), load.getReplies(), load.getFailed(),
+                        load.getReplies() / Math.max(load.getElapsedNanos() / 1_000_000_000.0, 1e-9),
+                        h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                        h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+            }
+            nc.flush(Duration.ofSeconds(5));
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -13,18 +13,34 @@ package net.beetsme;
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-import io.nats.client.Connection;
-import io.nats.client.Message;
-import io.nats.client.Nats;
-import io.nats.client.Subscription;
+import io.nats.client.*;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class NatsSub {
 
     static final String usageString =
-            "\nUsage: java -cp <classpath> NatsSub [-s server] <subject> <msgCount>\n"
+            "\nUsage: java -cp <classpath> NatsSub [-s server] [-tune profile] [-mon seconds] [-mcsv file] [-adapt true] [-wrk workers [-thrd platform|virtual]] [-rpt seconds] [-csv file] [-hdlr payloadHandlerClass] [-codec codec[,codec]*] <subject> <msgCount>\n"
+                    + "\nWith -wrk, messages are received on a Dispatcher and handed to a pool of worker threads,"
+                    + "\nor a virtual thread per message with -thrd virtual (Java 21+). Messages are not printed,"
+                    + "\nthroughput and, when published with -ts true, latency percentiles are reported at the end.\n"
+                    + "\nWith -rpt or -csv, messages are measured instead of printed, and the rate and latency"
+                    + "\npercentiles are printed every -rpt seconds and appended to the -csv file."
+                    + "\nWith -hdlr, each payload is also handed to that net.beetsme.PayloadHandler, without decoding or copying.\n"
+                    + "\nPayloads published with -codec are decoded when their " + PayloadCodec.HEADER + " header names one of the -codec"
+                    + "\ncodecs given here, up to the server's max payload, others are counted, skipped and count toward msgCount."
+                    + "\nThe decoded bytes, ratio, time per decode and skipped payloads are printed at the end."
+                    + "\nBatches published with -brec, -bbyt or -blng are split into their records, msgCount and the"
+                    + "\nrates count records, the record and batch rates are printed at the end.\n"
+                    + "\nWith -mon or -mcsv, the pending messages and bytes, their peak and the dropped messages are sampled"
+                    + "\nevery -mon seconds and appended to the -mcsv file. With -adapt true, the pending limits are doubled"
+                    + "\nwhen the subscription is reported slow or is three quarters full, up to 8 times the client default.\n"
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained.\n"
                     + "\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
                     + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
                     + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
@@ -35,11 +51,59 @@ public class NatsSub {
 
         System.out.printf("\nTrying to connect to %s, and listen to %s for %d messages.\n\n", exArgs.server, exArgs.subject, exArgs.msgCount);
 
-        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, true))) {
+        SlowConsumerMonitor monitor = null;
+        try {
+            monitor = ExampleUtils.createSlowConsumerMonitor(exArgs);
+        }
+        catch (IOException e) {
+            System.err.println(e);
+            return;
+        }
+
+        CodecLayer codec = null;
+        try (Connection nc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, true, monitor, exArgs.tuning))) {
+            codec = ExampleUtils.createCodecReceiver(exArgs, nc.getServerInfo().getMaxPayload());
+
+            if (exArgs.workers > 0) {
+                dispatch(nc, exArgs, monitor, codec);
+                return;
+            }
 
             Subscription sub = nc.subscribe(exArgs.subject);
+            exArgs.tuning.applyPendingLimits(sub);
+            if (monitor != null) {
+                monitor.watch(sub, exArgs.subject);
+            }
             nc.flush(Duration.ofSeconds(5));
 
+            if (!exArgs.printMessages()) {
+                Unbatcher unbatcher;
+                try (ExampleMetrics metrics = ExampleUtils.createMetrics("Consumed", exArgs)) {
+                    unbatcher = new Unbatcher(ExampleUtils.createPayloadHandler(exArgs, metrics));
+                    PayloadView view = new PayloadView();
+                    if (monitor == null) {
+                        while (unbatcher.getRecords() + codec.getSkipped() < exArgs.msgCount) {
+                            Message m = sub.nextMessage(Duration.ofHours(1));
+                            onMessage(unbatcher, view, m, codec);
+                        }
+                    }
+                    else {
+                        // dropped messages never arrive, count them so the run still ends
+                        while (unbatcher.getRecords() + codec.getSkipped() + sub.getDroppedCount() < exArgs.msgCount) {
+                            Message m = sub.nextMessage(Duration.ofSeconds(1));
+                            if (m != null) {
+                                onMessage(unbatcher, view, m, codec);
+                            }
+                        }
+                    }
+                }
+                unbatcher.printStats();
+                return;
+            }
+
+            PayloadView printView = new PayloadView();
+            Unbatcher printer = new Unbatcher(p -> System.out.printf("  Data: %s\n",
+                    new String(p.array(), p.offset(), p.length(), StandardCharsets.UTF_8)));
             for(int i=0;i<exArgs.msgCount;i++) {
                 Message msg = sub.nextMessage(Duration.ofHours(1));
 
@@ -54,14 +118,75 @@ public class NatsSub {
                     }
                 }
 
-                System.out.printf("  Subject: %s\n  Data: %s\n",
-                        msg.getSubject(),
-                        new String(msg.getData(), StandardCharsets.UTF_8));
+                System.out.printf("  Subject: %s\n", msg.getSubject());
+                byte[] data = codec.decode(msg);
+                if (data == null) {
+                    System.out.println("  Skipped, not encoded with a -codec codec or too large once decoded");
+                }
+                else {
+                    printer.onPayload(printView.of(msg, data));
+                }
 
             }
         }
         catch (Exception exp) {
             System.err.println(exp);
         }
+        finally {
+            if (monitor != null) {
+                monitor.close();
+            }
+            if (codec != null) {
+                codec.printStats();
+            }
+        }
+    }
+
+    private static void onMessage(PayloadHandler handler, PayloadView view, Message m, CodecLayer codec) {
+        byte[] data = codec.decode(m);
+        if (data != null) {
+            handler.onPayload(view.of(m, data));
+        }
+    }
+
+    private static void dispatch(Connection nc, ExampleArgs exArgs, SlowConsumerMonitor monitor, CodecLayer codec) throws Exception {
+        ExecutorService pool = ExampleUtils.createWorkerPool(exArgs.workers, exArgs.threads);
+        CountDownLatch done = new CountDownLatch(exArgs.msgCount);
+        ExampleMetrics metrics = ExampleUtils.createMetrics("Consumed", exArgs);
+        PayloadHandler handler = ExampleUtils.createPayloadHandler(exArgs, metrics);
+        Unbatcher unbatcher = new Unbatcher(payload -> {
+            handler.onPayload(payload);
+            done.countDown();
+        });
+        ThreadLocal<PayloadView> views = ThreadLocal.withInitial(PayloadView::new);
+
+        // the dispatcher thread only hands off, all per message work happens on the workers
+        Dispatcher d = nc.createDispatcher(msg -> pool.execute(() -> {
+            byte[] data = codec.decode(msg);
+            if (data == null) {
+                done.countDown();
+            }
+            else {
+                unbatcher.onPayload(views.get().of(msg, data));
+            }
+        }));
+        exArgs.tuning.applyPendingLimits(d);
+        if (monitor != null) {
+            monitor.watch(d, exArgs.subject);
+        }
+        d.subscribe(exArgs.subject);
+        nc.flush(Duration.ofSeconds(5));
+
+        // dropped messages never arrive, count them so the run still ends
+        while (!done.await(1, TimeUnit.SECONDS)) {
+            if (exArgs.msgCount - done.getCount() + d.getDroppedCount() >= exArgs.msgCount) {
+                break;
+            }
+        }
+        nc.closeDispatcher(d);
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+        metrics.close();
+        unbatcher.printStats();
     }
 }
@@ -0,0 +1,187 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.Nats;
+import io.nats.client.Subscription;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This example will demonstrate many synchronous subscriptions, each with its own thread blocked in nextMessage,
+ * and compare the cost of doing that on platform threads and on virtual threads.
+ */
+public class NatsSubScale {
+    static final String usageString =
+            "\nUsage: java -cp <classpath> NatsSubScale [-s server] [-tune profile] [-sub subjectPrefix] [-scnt subscriptions] [-mcnt msgCount] [-psz payloadSize] [-thrd platform|virtual|both]"
+                    + "\n\nDefault Values:"
+                    + "\n   [-sub]  scale"
+                    + "\n   [-scnt] 1000"
+                    + "\n   [-mcnt] 100000"
+                    + "\n   [-psz]  128"
+                    + "\n   [-thrd] both"
+                    + "\n\nSubscribes to subjectPrefix.0 through subjectPrefix.(subscriptions-1), one thread per subscription"
+                    + "\nwaiting in nextMessage, then publishes msgCount messages spread over the subjects."
+                    + "\nReports the platform thread count, the heap and, on Linux, the resident memory used by the subscriptions"
+                    + "\nand their threads, which is where platform thread stacks show, and throughput."
+                    + "\nWith -thrd both, runs with platform threads and then virtual threads and prints them side by side."
+                    + "\nVirtual threads need Java 21, build with mvn -Pjava21 package, on older Java both runs use platform threads."
+                    + "\nFor many pull loops instead, see NatsJsPullSubFetch -wrk with -thrd virtual."
+                    + "\nWith -tune, the connection and subscriptions use that TuningProfile: default, low-latency, high-throughput or memory-constrained."
+                    + "\n\nUse tls:// or opentls:// to require tls, via the Default SSLContext\n"
+                    + "\nSet the environment variable NATS_NKEY to use challenge response authentication by setting a file containing your private key.\n"
+                    + "\nSet the environment variable NATS_CREDS to use JWT/NKey authentication by setting a file containing your user creds.\n"
+                    + "\nUse the URL in the -s server parameter for user/pass/token authentication.\n";
+
+    private static final Duration IDLE_TIMEOUT = Duration.ofSeconds(5);
+
+    static class Result {
+        String threads;
+        int platformThreads;
+        long heapBytes;
+        long residentBytes;
+        long startNanos;
+        long msgs;
+        long elapsedNanos;
+    }
+
+    public static void main(String[] args) {
+        ExampleArgs exArgs = ExampleArgs.builder("Many Subscriptions by Thread Type", args, usageString)
+                .defaultSubject("scale")
+                .defaultSubCount(1000)
+                .defaultMsgCount(100_000)
+                .defaultPayloadSize(128)
+                .defaultThreads("both")
+                .build();
+
+        String[] modes = "both".equals(exArgs.threads) ? new String[]{"platform", "virtual"} : new String[]{exArgs.threads};
+        List<Result> results = new ArrayList<>();
+        try {
+            for (String threads : modes) {
+                results.add(run(exArgs, threads));
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+
+        System.out.printf("\n%-10s %16s %14s %14s %14s %12s %12s\n",
+                "threads", "platform threads", "heap (MB)", "resident (MB)", "per sub (KB)", "start (ms)", "msgs/sec");
+        for (Result r : results) {
+            System.out.printf("%-10s %,16d %,14.1f %14s %,14.1f %,12.1f %,12.0f\n",
+                    r.threads, r.platformThreads, r.heapBytes / (1024.0 * 1024.0),
+                    r.residentBytes < 0 ? "n/a" : String.format("%,.1f", r.residentBytes / (1024.0 * 1024.0)),
+                    (r.residentBytes < 0 ? r.heapBytes : r.residentBytes) / 1024.0 / exArgs.subCount, r.startNanos / 1_000_000.0,
+                    r.msgs / Math.max(r.elapsedNanos / 1_000_000_000.0, 1e-9));
+        }
+        if (!ExampleUtils.virtualThreadsAvailable()) {
+            System.out.println("\nThis JVM is Java " + Runtime.version().feature() + ", the virtual run used platform threads.");
+        }
+    }
+
+    private static Result run(ExampleArgs exArgs, String threads) throws Exception {
+        Result result = new Result();
+        result.threads = threads;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+        try (Connection subNc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning));
+             Connection pubNc = Nats.connect(ExampleUtils.createExampleOptions(exArgs.server, exArgs.tuning));
+             ExampleMetrics metrics = ExampleUtils.createMetrics("Consumed on " + threads + " threads", exArgs)) {
+
+            int subCount = exArgs.subCount;
+            System.gc();
+            long heapBefore = memoryBean.getHeapMemoryUsage().getUsed();
+            long residentBefore = residentBytes();
+            int threadsBefore = threadBean.getThreadCount();
+
+            String[] subjects = new String[subCount];
+            List<Thread> loops = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int x = 0; x < subCount; x++) {
+                subjects[x] = exArgs.subject + "." + x;
+                Subscription sub = subNc.subscribe(subjects[x]);
+                exArgs.tuning.applyPendingLimits(sub);
+                int expected = exArgs.msgCount / subCount + (x < exArgs.msgCount % subCount ? 1 : 0);
+                loops.add(ExampleUtils.startThread("sub-" + x, () -> receive(sub, expected, metrics), threads));
+            }
+            subNc.flush(Duration.ofSeconds(10));
+            result.startNanos = System.nanoTime() - start;
+
+            System.gc();
+            result.heapBytes = Math.max(0, memoryBean.getHeapMemoryUsage().getUsed() - heapBefore);
+            long residentAfter = residentBytes();
+            result.residentBytes = residentBefore < 0 || residentAfter < 0 ? -1 : Math.max(0, residentAfter - residentBefore);
+            result.platformThreads = threadBean.getThreadCount() - threadsBefore;
+
+            SustainedPublisher.builder(pubNc, exArgs.subject)
+                    .subjects(subjects)
+                    .payload(SustainedPublisher.payload(new byte[]{'x'}, exArgs.payloadSize))
+                    .msgCount(exArgs.msgCount)
+                    .build()
+                    .run();
+
+            for (Thread t : loops) {
+                t.join();
+            }
+            result.msgs = metrics.getMsgs();
+            result.elapsedNanos = System.nanoTime() - start - result.startNanos;
+        }
+        return result;
+    }
+
+    /**
+     * The resident set size from /proc, so only on Linux. Thread stacks are not on the heap.
+     * @return the bytes, or -1 when not available
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static void receive(Subscription sub, int expected, ExampleMetrics metrics) {
+        try {
+            for (int x = 0; x < expected; x++) {
+                Message m = sub.nextMessage(IDLE_TIMEOUT);
+                if (m == null) {
+                    return;
+                }
+                metrics.record(m);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
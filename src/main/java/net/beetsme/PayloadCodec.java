@@ -0,0 +1,71 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * Compresses and decompresses payloads. The name is sent in the {@link #HEADER} header of every message
+ * it encoded, so a receiver picks the codec from the message instead of being configured to match.
+ *
+ * <p>Built in: deflate, the JDK's Deflater at its fastest level, and deflate-max at its best compression.
+ * Any other name is loaded as a class with a public no argument constructor, so a codec can be plugged in
+ * from the classpath, for instance one wrapping an LZ4 library. Codecs are shared across threads.
+ * Names only ever come from local configuration, a receiver looks a header up among the codecs it was given.
+ */
+public interface PayloadCodec {
+    String HEADER = "Beetsme-Codec";
+
+    /**
+     * @return the name sent in the header, a receiver must be able to find the codec by it
+     */
+    String name();
+
+    /**
+     * @param data the payload, not modified
+     * @return the encoded payload
+     */
+    byte[] encode(byte[] data);
+
+    /**
+     * @param data an encoded payload, not modified
+     * @param maxSize the most bytes the original payload may have
+     * @return the original payload
+     * @throws IllegalArgumentException if the payload is not valid or decodes to more than maxSize bytes
+     */
+    byte[] decode(byte[] data, int maxSize);
+
+    /**
+     * Find a codec by name, from configuration, never from a received header.
+     * @param name a built in name or a PayloadCodec class name
+     * @return the codec
+     */
+    static PayloadCodec of(String name) {
+        switch (name) {
+            case DeflateCodec.FAST_NAME:
+                return DeflateCodec.FAST;
+            case DeflateCodec.BEST_NAME:
+                return DeflateCodec.BEST;
+        }
+        try {
+            // check the type before creating anything
+            Class<?> c = Class.forName(name, false, PayloadCodec.class.getClassLoader());
+            if (!PayloadCodec.class.isAssignableFrom(c)) {
+                throw new ClassCastException(name);
+            }
+            return (PayloadCodec) c.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown codec " + name + ", use deflate, deflate-max or a PayloadCodec class name");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * Processes the raw payload of a received message. Implementations given to the examples
+ * with -hdlr need a public no argument constructor and, for NatsSub -wrk, must be thread safe.
+ */
+@FunctionalInterface
+public interface PayloadHandler {
+    /**
+     * @param payload a view of the message, only valid until this method returns
+     */
+    void onPayload(PayloadView payload);
+}
@@ -0,0 +1,137 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable view of a received message's payload, handed to a {@link PayloadHandler}.
+ *
+ * <p>The view points at the client's own payload array, nothing is copied or decoded.
+ * Headers are only looked at when a handler asks for one, and the ByteBuffer view is only
+ * created when a handler asks for it. One view is reused for every message on a thread,
+ * so a handler must not keep it, or the array, after it returns.
+ */
+public class PayloadView {
+    private static final byte[] EMPTY = new byte[0];
+
+    private Message msg;
+    private byte[] data = EMPTY;
+    private int offset;
+    private int length;
+    private ByteBuffer buffer;
+
+    /**
+     * Point the view at a message.
+     * @param msg the message
+     * @return this view
+     */
+    public PayloadView of(Message msg) {
+        byte[] d = msg.getData();
+        return of(msg, d, 0, d == null ? 0 : d.length);
+    }
+
+    /**
+     * Point the view at a message whose payload was decoded, see {@link CodecLayer#decode(Message)}.
+     * @param msg the message
+     * @param data the decoded payload
+     * @return this view
+     */
+    public PayloadView of(Message msg, byte[] data) {
+        return of(msg, data, 0, data == null ? 0 : data.length);
+    }
+
+    /**
+     * Point the view at part of an array, one record of a batch, see {@link Unbatcher}.
+     * @param msg the message the record came in, for its headers
+     * @param data the array
+     * @param offset where the record starts
+     * @param length the length of the record
+     * @return this view
+     */
+    public PayloadView of(Message msg, byte[] data, int offset, int length) {
+        this.msg = msg;
+        this.data = data == null ? EMPTY : data;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * The array holding the payload, from {@link #offset()} for {@link #length()} bytes. Do not modify it.
+     * @return the array
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * A ByteBuffer over the payload, only created when asked for, at most once per message.
+     * @return the buffer, positioned at the start of the payload and limited to its end
+     */
+    public ByteBuffer buffer() {
+        if (buffer == null || buffer.array() != data) {
+            buffer = ByteBuffer.wrap(data);
+        }
+        buffer.clear();
+        buffer.position(offset).limit(offset + length);
+        return buffer;
+    }
+
+    /**
+     * The first value of a header, without walking or copying the others.
+     * @param key the header key
+     * @return the value or null
+     */
+    public String header(String key) {
+        return msg.hasHeaders() ? msg.getHeaders().getFirst(key) : null;
+    }
+
+    /**
+     * The first value of a header as a long.
+     * @param key the header key
+     * @param dflt the value if the header is missing or not a number
+     * @return the value
+     */
+    public long headerLong(String key, long dflt) {
+        String value = header(key);
+        if (value == null) {
+            return dflt;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            return dflt;
+        }
+    }
+
+    /**
+     * The message, for acking or anything the view does not cover.
+     * @return the message
+     */
+    public Message message() {
+        return msg;
+    }
+}
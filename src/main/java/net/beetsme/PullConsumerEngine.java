@@ -0,0 +1,269 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStreamSubscription;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.PullRequestOptions;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+
+/**
+ * Drives a pull subscription with several pull requests in flight, instead of
+ * waiting for one batch to drain before asking for the next.
+ *
+ * <p>Messages requested but not yet received, plus messages already buffered on the client,
+ * are the "buffer". When the buffer drops to the low water mark, more pull requests are
+ * issued, up to the in flight limit. With one request in flight and a low water mark of 0,
+ * this is the same stop-and-wait behavior as a plain fetch loop, which makes it easy to compare.
+ *
+ * <p>The server does not tell the client when a request ends early, for instance a no wait
+ * request with nothing to deliver or a request that reached its max bytes, so requests are
+ * forgotten when they expire, and no wait requests are also forgotten when the subscription goes idle.
+ */
+public class PullConsumerEngine {
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final Duration DEFAULT_EXPIRES_IN = Duration.ofSeconds(1);
+
+    private final int batchSize;
+    private final int maxBytes;
+    private final int inFlight;
+    private final int lowWater;
+    private final Duration expiresIn;
+    private final boolean noWait;
+    private final Duration pollTimeout;
+
+    private final ArrayDeque<PendingPull> pulls = new ArrayDeque<>();
+    private long outstanding;
+    private long received;
+    private long receivedBytes;
+    private long pullsIssued;
+    private long elapsedNanos;
+
+    private static class PendingPull {
+        final long expiresAt;
+        int remaining;
+
+        PendingPull(long expiresAt, int remaining) {
+            this.expiresAt = expiresAt;
+            this.remaining = remaining;
+        }
+    }
+
+    private PullConsumerEngine(Builder b) {
+        this.batchSize = b.batchSize;
+        this.maxBytes = b.maxBytes;
+        this.inFlight = b.inFlight;
+        this.lowWater = b.lowWater < 0 ? batchSize * (inFlight - 1) : b.lowWater;
+        this.expiresIn = b.expiresIn;
+        this.noWait = b.noWait;
+        this.pollTimeout = b.pollTimeout;
+    }
+
+    /**
+     * Consume messages until msgCount JetStream messages have been handled.
+     * Can be called again on the same subscription to continue, requests still in flight carry over.
+     * @param sub the pull subscription
+     * @param msgCount the number of messages to handle, less than 1 for unlimited
+     * @param handler called on this thread for every message, responsible for acking
+     * @return the number of messages handled by this call
+     * @throws InterruptedException if interrupted while waiting for messages
+     */
+    public long run(JetStreamSubscription sub, long msgCount, MessageHandler handler) throws InterruptedException {
+        long already = received;
+        long limit = msgCount < 1 ? Long.MAX_VALUE : already + msgCount;
+        long start = System.nanoTime();
+        while (received < limit) {
+            long now = System.nanoTime();
+            reap(now);
+            refill(sub, limit, now);
+
+            Message m = sub.nextMessage(pollTimeout);
+            if (m == null) {
+                if (noWait) {
+                    outstanding = 0;
+                    pulls.clear();
+                }
+                continue;
+            }
+            if (!m.isJetStream()) {
+                continue;
+            }
+            received++;
+            receivedBytes += m.getData() == null ? 0 : m.getData().length;
+            credit();
+            handler.onMessage(m);
+        }
+        elapsedNanos += System.nanoTime() - start;
+        return received - already;
+    }
+
+    private void reap(long now) {
+        while (!pulls.isEmpty() && pulls.peekFirst().expiresAt - now <= 0) {
+            outstanding -= pulls.pollFirst().remaining;
+        }
+    }
+
+    private void refill(JetStreamSubscription sub, long limit, long now) {
+        while (pulls.size() < inFlight) {
+            // outstanding is only credited once nextMessage hands a message over, so the messages
+            // already pending on the client are in it too, count each message once
+            long pending = sub.getPendingMessageCount();
+            long undelivered = Math.max(0, outstanding - pending);
+            if (undelivered + pending > lowWater) {
+                return;
+            }
+            // never ask for more than is still needed, extra messages would just wait for redelivery
+            long needed = limit - received - undelivered - pending;
+            if (needed < 1) {
+                return;
+            }
+            int batch = (int) Math.min(batchSize, needed);
+            PullRequestOptions.Builder prob = PullRequestOptions.builder(batch).expiresIn(expiresIn);
+            if (maxBytes > 0) {
+                prob.maxBytes(maxBytes);
+            }
+            if (noWait) {
+                prob.noWait();
+            }
+            sub.pull(prob.build());
+            pulls.addLast(new PendingPull(now + expiresIn.toNanos(), batch));
+            outstanding += batch;
+            pullsIssued++;
+        }
+    }
+
+    private void credit() {
+        // the server fills requests in the order they were made
+        PendingPull pp = pulls.peekFirst();
+        if (pp != null) {
+            outstanding--;
+            if (--pp.remaining == 0) {
+                pulls.pollFirst();
+            }
+        }
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public long getPullsIssued() {
+        return pullsIssued;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void printThroughput() {
+        System.out.printf("Pull engine: batch %d, max bytes %d, %d in flight, low water %d, %,d pulls issued\n",
+                batchSize, maxBytes, inFlight, lowWater, pullsIssued);
+        ExampleUtils.printThroughput("Consumed", received, receivedBytes, elapsedNanos);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder seeded from the command line: -pull batch size, -pbytes max bytes and -pipe requests in flight.
+     * @param exArgs the parsed arguments
+     * @return the builder
+     */
+    public static Builder builder(ExampleArgs exArgs) {
+        Builder b = new Builder();
+        if (exArgs.pullSize > 0) {
+            b.batchSize(exArgs.pullSize);
+        }
+        if (exArgs.maxBytes > 0) {
+            b.maxBytes(exArgs.maxBytes);
+        }
+        if (exArgs.pipeline > 0) {
+            b.inFlight(exArgs.pipeline);
+        }
+        return b;
+    }
+
+    public static class Builder {
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int maxBytes;
+        private int inFlight = 2;
+        private int lowWater = -1;
+        private Duration expiresIn = DEFAULT_EXPIRES_IN;
+        private boolean noWait;
+        private Duration pollTimeout = Duration.ofMillis(100);
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBytes the max bytes per pull request, less than 1 for no limit
+         * @return the builder
+         */
+        public Builder maxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param inFlight the maximum number of pull requests outstanding at once
+         * @return the builder
+         */
+        public Builder inFlight(int inFlight) {
+            this.inFlight = Math.max(1, inFlight);
+            return this;
+        }
+
+        /**
+         * @param lowWater refill when requested plus buffered messages drop to this, defaults to all but one batch
+         * @return the builder
+         */
+        public Builder lowWater(int lowWater) {
+            this.lowWater = lowWater;
+            return this;
+        }
+
+        public Builder expiresIn(Duration expiresIn) {
+            this.expiresIn = expiresIn;
+            return this;
+        }
+
+        public Builder noWait(boolean noWait) {
+            this.noWait = noWait;
+            return this;
+        }
+
+        /**
+         * @param pollTimeout how long to wait for a message before checking expirations and refilling
+         * @return the builder
+         */
+        public Builder pollTimeout(Duration pollTimeout) {
+            this.pollTimeout = pollTimeout;
+            return this;
+        }
+
+        public PullConsumerEngine build() {
+            return new PullConsumerEngine(this);
+        }
+    }
+}
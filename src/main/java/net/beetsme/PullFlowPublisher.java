@@ -0,0 +1,298 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStreamSubscription;
+import io.nats.client.Message;
+import io.nats.client.PullRequestOptions;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Flow.Publisher of the messages of a pull subscription, pulling only what the subscriber asked for.
+ *
+ * <p>Demand from request(n) that has not been pulled yet is pulled right away, up to the max batch per pull,
+ * also while the subscriber is still handling earlier messages, so the server keeps delivering into the
+ * client while the subscriber works. Nothing is pulled beyond the demand, so a slow subscriber slows the pulls
+ * and at most its demand waits on the client. A pull that expires without filling is forgotten and its part
+ * of the demand pulled again. Pulling and every signal after onSubscribe happen on one pull thread,
+ * so the subscriber is called serially, a request that is not positive is reported by that thread too.
+ * Once cancelled, or once onNext throws, the subscriber gets nothing more.
+ *
+ * <p>There is one subscription per publisher, a second subscriber gets onError.
+ */
+public class PullFlowPublisher implements Flow.Publisher<Message> {
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final Duration DEFAULT_EXPIRES_IN = Duration.ofSeconds(1);
+    private static final Duration POLL = Duration.ofMillis(100);
+
+    private final JetStreamSubscription sub;
+    private final int maxBatch;
+    private final Duration expiresIn;
+    private final long msgCount;
+    private final String threads;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private volatile long pulls;
+    private volatile long pulled;
+
+    private PullFlowPublisher(Builder b) {
+        this.sub = b.sub;
+        this.maxBatch = Math.max(1, b.maxBatch);
+        this.expiresIn = b.expiresIn;
+        this.msgCount = b.msgCount;
+        this.threads = b.threads;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+            return;
+        }
+        PullSubscription ps = new PullSubscription(subscriber);
+        subscriber.onSubscribe(ps);
+        ExampleUtils.startThread("pull-flow", ps::pullLoop, threads);
+    }
+
+    public long getPulls() {
+        return pulls;
+    }
+
+    public long getPulled() {
+        return pulled;
+    }
+
+    private static class PendingPull {
+        final long expiresAt;
+        int remaining;
+
+        PendingPull(long expiresAt, int remaining) {
+            this.expiresAt = expiresAt;
+            this.remaining = remaining;
+        }
+    }
+
+    private class PullSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Message> subscriber;
+        private final Object lock = new Object();
+        private long demand;
+        private volatile boolean cancelled;
+        private Throwable error;
+
+        PullSubscription(Flow.Subscriber<? super Message> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (lock) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    // signalled from the pull thread, so the subscriber is still only called serially
+                    error = new IllegalArgumentException("request must be positive, was " + n);
+                    cancelled = true;
+                }
+                else {
+                    demand += n;
+                    if (demand < 0) {
+                        demand = Long.MAX_VALUE; // effectively unbounded, as the spec allows
+                    }
+                }
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * @return the demand not yet delivered, or -1 once cancelled
+         */
+        private long currentDemand() {
+            synchronized (lock) {
+                return cancelled ? -1 : demand;
+            }
+        }
+
+        private void awaitDemand() throws InterruptedException {
+            synchronized (lock) {
+                while (demand == 0 && !cancelled) {
+                    lock.wait();
+                }
+            }
+        }
+
+        /**
+         * Cancelled, by the subscriber or by a request that was not positive, signal the error if there is one.
+         */
+        private void finish() {
+            Throwable t;
+            synchronized (lock) {
+                t = error;
+                error = null;
+            }
+            if (t != null) {
+                subscriber.onError(t);
+            }
+        }
+
+        void pullLoop() {
+            ArrayDeque<PendingPull> inFlight = new ArrayDeque<>();
+            long requested = 0; // asked of the server and not delivered yet, pending on the client included
+            long delivered = 0;
+            try {
+                while (msgCount < 1 || delivered < msgCount) {
+                    long now = System.nanoTime();
+                    // the server does not say when a pull expires without filling, forget it then
+                    while (!inFlight.isEmpty() && inFlight.peekFirst().expiresAt - now <= 0) {
+                        requested -= inFlight.pollFirst().remaining;
+                    }
+
+                    long want = currentDemand();
+                    if (want < 0) {
+                        finish();
+                        return;
+                    }
+                    if (msgCount > 0) {
+                        want = Math.min(want, msgCount - delivered);
+                    }
+                    if (want > requested) {
+                        // pull for new demand right away, while earlier messages are still being handled
+                        int batch = (int) Math.min(want - requested, maxBatch);
+                        sub.pull(PullRequestOptions.builder(batch).expiresIn(expiresIn).build());
+                        inFlight.addLast(new PendingPull(now + expiresIn.toNanos(), batch));
+                        requested += batch;
+                        pulls++;
+                        continue;
+                    }
+                    if (requested == 0) {
+                        awaitDemand();
+                        continue;
+                    }
+
+                    Message m = sub.nextMessage(POLL);
+                    if (m == null || !m.isJetStream()) {
+                        continue;
+                    }
+                    // the server fills pulls in the order they were made
+                    PendingPull head = inFlight.peekFirst();
+                    if (head != null) {
+                        requested--;
+                        if (--head.remaining == 0) {
+                            inFlight.pollFirst();
+                        }
+                    }
+                    pulled++;
+                    synchronized (lock) {
+                        demand--;
+                    }
+                    if (cancelled) {
+                        finish();
+                        return;
+                    }
+                    try {
+                        subscriber.onNext(m);
+                    }
+                    catch (Throwable t) {
+                        // a subscriber that throws is treated as cancelled and gets no more signals, rule 2.13
+                        cancel();
+                        return;
+                    }
+                    delivered++;
+                }
+            }
+            catch (Throwable t) {
+                if (!cancelled) {
+                    cancel();
+                    subscriber.onError(t);
+                }
+                return;
+            }
+            if (!cancelled) {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    public static Builder builder(JetStreamSubscription sub) {
+        return new Builder(sub);
+    }
+
+    public static class Builder {
+        private final JetStreamSubscription sub;
+        private int maxBatch = DEFAULT_MAX_BATCH;
+        private Duration expiresIn = DEFAULT_EXPIRES_IN;
+        private long msgCount;
+        private String threads;
+
+        public Builder(JetStreamSubscription sub) {
+            this.sub = sub;
+        }
+
+        /**
+         * @param maxBatch the largest pull, however much demand there is
+         * @return the builder
+         */
+        public Builder maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        /**
+         * @param expiresIn how long one pull waits for its messages
+         * @return the builder
+         */
+        public Builder expiresIn(Duration expiresIn) {
+            this.expiresIn = expiresIn;
+            return this;
+        }
+
+        /**
+         * @param msgCount complete after this many messages, less than 1 to publish until cancelled
+         * @return the builder
+         */
+        public Builder msgCount(long msgCount) {
+            this.msgCount = msgCount;
+            return this;
+        }
+
+        /**
+         * @param threads platform or virtual for the pull thread, see {@link ExampleUtils#startThread(String, Runnable, String)}
+         * @return the builder
+         */
+        public Builder threads(String threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public PullFlowPublisher build() {
+            return new PullFlowPublisher(this);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A sample structured record, a price quote, with its binary layout and a view that reads it in place.
+ *
+ * <p>The layout is fixed fields, big endian, then the symbol:
+ * sequence (8), timestamp (8), price (8), size (4), symbol length (2), symbol (ASCII).
+ * A quote is mutable so a publisher can fill the same one for every record.
+ */
+public class Quote {
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle DOUBLE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 8;
+    private static final int PRICE = 16;
+    private static final int SIZE = 24;
+    private static final int SYMBOL_LENGTH = 28;
+    private static final int SYMBOL = 30;
+
+    /**
+     * The size of a quote without its symbol.
+     */
+    public static final int FIXED_SIZE = SYMBOL;
+
+    public static final RecordCodec<Quote> CODEC = new RecordCodec<Quote>() {
+        @Override
+        public int size(Quote q) {
+            return SYMBOL + q.symbol.length();
+        }
+
+        @Override
+        public void write(Quote q, byte[] buf) {
+            LONG.set(buf, SEQUENCE, q.sequence);
+            LONG.set(buf, TIMESTAMP, q.timestamp);
+            DOUBLE.set(buf, PRICE, q.price);
+            INT.set(buf, SIZE, q.size);
+            SHORT.set(buf, SYMBOL_LENGTH, (short) q.symbol.length());
+            for (int x = 0; x < q.symbol.length(); x++) {
+                buf[SYMBOL + x] = (byte) q.symbol.charAt(x);
+            }
+        }
+    };
+
+    private long sequence;
+    private long timestamp;
+    private double price;
+    private int size;
+    private String symbol = "";
+
+    /**
+     * @param sequence the sequence number
+     * @param timestamp the time of the quote, epoch millis
+     * @param price the price
+     * @param size the size
+     * @param symbol the symbol, ASCII, at most 32767 characters
+     * @return this quote
+     */
+    public Quote set(long sequence, long timestamp, double price, int size, String symbol) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.price = price;
+        this.size = size;
+        this.symbol = symbol;
+        return this;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Reads the fields of a serialized quote straight from the payload array, only the ones asked for.
+     * Nothing is copied, the symbol String is only created when {@link #symbol()} is called.
+     * Like {@link PayloadView}, one view is reused for every message on a thread.
+     */
+    public static class View {
+        private byte[] data;
+        private int offset;
+        private String symbol;
+
+        public View of(PayloadView payload) {
+            return of(payload.array(), payload.offset());
+        }
+
+        public View of(byte[] data, int offset) {
+            this.data = data;
+            this.offset = offset;
+            this.symbol = null;
+            return this;
+        }
+
+        public long sequence() {
+            return (long) LONG.get(data, offset + SEQUENCE);
+        }
+
+        public long timestamp() {
+            return (long) LONG.get(data, offset + TIMESTAMP);
+        }
+
+        public double price() {
+            return (double) DOUBLE.get(data, offset + PRICE);
+        }
+
+        public int size() {
+            return (int) INT.get(data, offset + SIZE);
+        }
+
+        public int symbolLength() {
+            return (short) SHORT.get(data, offset + SYMBOL_LENGTH);
+        }
+
+        /**
+         * @return the symbol, created on the first call for this message
+         */
+        public String symbol() {
+            if (symbol == null) {
+                symbol = new String(data, offset + SYMBOL, symbolLength(), StandardCharsets.US_ASCII);
+            }
+            return symbol;
+        }
+
+        /**
+         * Compare the symbol without creating a String.
+         * @param s the symbol to compare with
+         * @return true if it is the symbol
+         */
+        public boolean symbolIs(String s) {
+            int len = symbolLength();
+            if (s.length() != len) {
+                return false;
+            }
+            for (int x = 0; x < len; x++) {
+                if (data[offset + SYMBOL + x] != s.charAt(x)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
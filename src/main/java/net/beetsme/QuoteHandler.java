@@ -0,0 +1,62 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the quotes NatsRecordPub publishes in place, for NatsSub -hdlr net.beetsme.QuoteHandler.
+ * It adds up size and notional from the fixed fields, and never creates the symbol String.
+ * A payload too short for its symbol is counted as malformed.
+ */
+public class QuoteHandler implements PayloadHandler {
+    private final ThreadLocal<Quote.View> views = ThreadLocal.withInitial(Quote.View::new);
+    private final LongAdder quotes = new LongAdder();
+    private final LongAdder volume = new LongAdder();
+    private final DoubleAdder notional = new DoubleAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    @Override
+    public void onPayload(PayloadView payload) {
+        if (payload.length() < Quote.FIXED_SIZE) {
+            malformed.increment();
+            return;
+        }
+        Quote.View q = views.get().of(payload);
+        if (payload.length() < Quote.FIXED_SIZE + q.symbolLength()) {
+            malformed.increment();
+            return;
+        }
+        quotes.increment();
+        volume.add(q.size());
+        notional.add(q.price() * q.size());
+    }
+
+    public long getQuotes() {
+        return quotes.sum();
+    }
+
+    public long getVolume() {
+        return volume.sum();
+    }
+
+    public double getNotional() {
+        return notional.sum();
+    }
+
+    public long getMalformed() {
+        return malformed.sum();
+    }
+}
@@ -0,0 +1,34 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * Serializes records of one type straight into a payload array, without going through a String.
+ * The size comes first, so {@link RecordPublisher} can take an array of exactly that size from its
+ * {@link BufferPool}. Reading is left to a view over the received array, see {@link Quote.View}.
+ * @param <T> the record type
+ */
+public interface RecordCodec<T> {
+    /**
+     * @param record the record
+     * @return the number of bytes {@link #write} needs for it
+     */
+    int size(T record);
+
+    /**
+     * @param record the record
+     * @param buf an array of exactly {@link #size} bytes, every byte is written
+     */
+    void write(T record, byte[] buf);
+}
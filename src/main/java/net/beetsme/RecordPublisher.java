@@ -0,0 +1,135 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes typed records, each serialized by its {@link RecordCodec} into an array from a {@link BufferPool}.
+ *
+ * <p>The arrays of published records are held until the next flush, once per flush batch as
+ * {@link SustainedPublisher} does, and go back to the pool after it, so in a steady state
+ * publishing a record allocates nothing but the client's own message. Not thread safe, use one per thread.
+ * @param <T> the record type
+ */
+public class RecordPublisher<T> {
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Connection nc;
+    private final String subject;
+    private final RecordCodec<T> codec;
+    private final BufferPool pool;
+    private final int flushBatch;
+    private final List<byte[]> inFlight;
+
+    private long published;
+    private long publishedBytes;
+
+    private RecordPublisher(Builder<T> b) {
+        this.nc = b.nc;
+        this.subject = b.subject;
+        this.codec = b.codec;
+        this.pool = b.pool == null ? new BufferPool() : b.pool;
+        this.flushBatch = Math.max(1, b.flushBatch);
+        this.inFlight = new ArrayList<>(flushBatch);
+    }
+
+    /**
+     * Serialize and publish a record, flushing when the flush batch is full.
+     * @param record the record
+     * @throws TimeoutException if the flush does not complete in time
+     * @throws InterruptedException if interrupted while flushing
+     */
+    public void publish(T record) throws TimeoutException, InterruptedException {
+        byte[] buf = pool.acquire(codec.size(record));
+        codec.write(record, buf);
+        nc.publish(subject, buf);
+        inFlight.add(buf);
+        published++;
+        publishedBytes += buf.length;
+        if (inFlight.size() >= flushBatch) {
+            flush();
+        }
+    }
+
+    /**
+     * Flush the connection and give the arrays of everything published so far back to the pool.
+     * @throws TimeoutException if the flush does not complete in time
+     * @throws InterruptedException if interrupted while flushing
+     */
+    public void flush() throws TimeoutException, InterruptedException {
+        nc.flush(FLUSH_TIMEOUT);
+        for (byte[] buf : inFlight) {
+            pool.release(buf);
+        }
+        inFlight.clear();
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getPublishedBytes() {
+        return publishedBytes;
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    public static <T> Builder<T> builder(Connection nc, String subject, RecordCodec<T> codec) {
+        return new Builder<>(nc, subject, codec);
+    }
+
+    public static class Builder<T> {
+        private final Connection nc;
+        private final String subject;
+        private final RecordCodec<T> codec;
+        private BufferPool pool;
+        private int flushBatch = SustainedPublisher.DEFAULT_FLUSH_BATCH;
+
+        public Builder(Connection nc, String subject, RecordCodec<T> codec) {
+            this.nc = nc;
+            this.subject = subject;
+            this.codec = codec;
+        }
+
+        /**
+         * @param pool the pool to take arrays from, null for a pool of its own
+         * @return the builder
+         */
+        public Builder<T> pool(BufferPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * @param flushBatch the records published between flushes, also the most arrays held out of the pool
+         * @return the builder
+         */
+        public Builder<T> flushBatch(int flushBatch) {
+            this.flushBatch = flushBatch;
+            return this;
+        }
+
+        public RecordPublisher<T> build() {
+            return new RecordPublisher<>(this);
+        }
+    }
+}
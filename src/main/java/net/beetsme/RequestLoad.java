@@ -0,0 +1,162 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends requests with the async request API, keeping a fixed number outstanding.
+ *
+ * <p>A new request is sent as soon as a reply, a timeout or a no responders comes back for an
+ * earlier one, so the concurrency stays the same for the whole run, like that many callers
+ * each calling in a loop. The latency of every reply is recorded from the moment its request was sent.
+ */
+public class RequestLoad {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(2);
+
+    private final Connection nc;
+    private final String subject;
+    private final byte[] payload;
+    private final int requests;
+    private final int concurrency;
+    private final Duration timeout;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong replyBytes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long elapsedNanos;
+    private int unfinished;
+
+    private RequestLoad(Builder b) {
+        this.nc = b.nc;
+        this.subject = b.subject;
+        this.payload = b.payload;
+        this.requests = b.requests;
+        this.concurrency = Math.max(1, b.concurrency);
+        this.timeout = b.timeout;
+    }
+
+    public void run() throws InterruptedException {
+        Semaphore outstanding = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        for (int x = 0; x < requests; x++) {
+            outstanding.acquire();
+            long sent = System.nanoTime();
+            nc.requestWithTimeout(subject, payload, timeout).whenComplete((reply, error) -> {
+                if (error == null) {
+                    latency.record(System.nanoTime() - sent);
+                    replies.incrementAndGet();
+                    replyBytes.addAndGet(reply.getData() == null ? 0 : reply.getData().length);
+                }
+                else {
+                    failed.incrementAndGet();
+                }
+                outstanding.release();
+            });
+        }
+        // every request has finished once all the permits are back
+        if (!outstanding.tryAcquire(concurrency, timeout.toMillis() * 2, TimeUnit.MILLISECONDS)) {
+            unfinished = concurrency - outstanding.availablePermits();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    public long getReplies() {
+        return replies.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the requests that had neither a reply nor a failure twice the timeout after the last was sent,
+     * when not 0 the elapsed time and so any rate are not meaningful
+     */
+    public int getUnfinished() {
+        return unfinished;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public static Builder builder(Connection nc, String subject) {
+        return new Builder(nc, subject);
+    }
+
+    public static class Builder {
+        private final Connection nc;
+        private final String subject;
+        private byte[] payload = new byte[0];
+        private int requests = 1;
+        private int concurrency = 1;
+        private Duration timeout = DEFAULT_TIMEOUT;
+
+        public Builder(Connection nc, String subject) {
+            this.nc = nc;
+            this.subject = subject;
+        }
+
+        /**
+         * @param payload the payload sent with every request, never modified
+         * @return the builder
+         */
+        public Builder payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder requests(int requests) {
+            this.requests = requests;
+            return this;
+        }
+
+        /**
+         * @param concurrency the number of requests outstanding at once
+         * @return the builder
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param timeout how long a request waits for its reply before it counts as failed
+         * @return the builder
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public RequestLoad build() {
+            return new RequestLoad(this);
+        }
+    }
+}
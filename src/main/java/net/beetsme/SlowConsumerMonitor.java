@@ -0,0 +1,253 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.Consumer;
+import io.nats.client.ErrorListener;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An ErrorListener that keeps track of slow consumers instead of only printing that one happened.
+ *
+ * <p>Watched subscriptions and dispatchers are sampled every interval: pending messages and bytes against
+ * their limits, the deepest pending seen, and the messages dropped because the limits were reached.
+ * Each sample is printed, unless that is turned off, and, with a csv file, appended to it. A consumer the client reports
+ * as slow is watched from then on, even if it was not watched before.
+ *
+ * <p>In adaptive mode the pending limits of a consumer are doubled, up to a ceiling, when it is
+ * reported slow or when a sample finds it more than three quarters full, so a burst that the
+ * consumer can work through is held instead of dropped. Past the ceiling the messages are dropped
+ * as before, but they show in the dropped counts.
+ */
+public class SlowConsumerMonitor implements ErrorListener, AutoCloseable {
+    public static final long DEFAULT_MAX_PENDING_MSGS = 8 * Consumer.DEFAULT_MAX_MESSAGES;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 8 * Consumer.DEFAULT_MAX_BYTES;
+    private static final double RAISE_AT = 0.75;
+
+    private final boolean adaptive;
+    private final boolean printSamples;
+    private final long maxPendingMsgs;
+    private final long maxPendingBytes;
+    private final Timer timer;
+    private final PrintWriter csv;
+    private final Map<Consumer, Watched> watched = new ConcurrentHashMap<>();
+
+    private static class Watched {
+        final String label;
+        long peakMsgs;
+        long peakBytes;
+        long slowEvents;
+        long raises;
+
+        Watched(String label) {
+            this.label = label;
+        }
+    }
+
+    private SlowConsumerMonitor(Builder b) throws IOException {
+        this.adaptive = b.adaptive;
+        this.printSamples = b.printSamples;
+        this.maxPendingMsgs = b.maxPendingMsgs;
+        this.maxPendingBytes = b.maxPendingBytes;
+        if (b.csvFile == null) {
+            csv = null;
+        }
+        else {
+            csv = new PrintWriter(new FileWriter(b.csvFile, true), true);
+            csv.println("time,consumer,delivered,pending_msgs,pending_bytes,peak_msgs,peak_bytes,limit_msgs,limit_bytes,dropped,slow_events");
+        }
+        timer = new Timer("slow-consumer-monitor", true);
+        long millis = b.sampleInterval.toMillis();
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, millis, millis);
+    }
+
+    /**
+     * Start sampling a subscription or dispatcher.
+     * @param consumer the subscription or dispatcher
+     * @param label the name to report it by
+     */
+    public void watch(Consumer consumer, String label) {
+        watched.putIfAbsent(consumer, new Watched(label));
+    }
+
+    @Override
+    public void slowConsumerDetected(Connection conn, Consumer consumer) {
+        Watched w = watched.computeIfAbsent(consumer, c -> new Watched("consumer-" + (watched.size() + 1)));
+        synchronized (w) {
+            w.slowEvents++;
+            System.out.printf("Slow consumer %s: %,d pending msgs, %,d pending bytes, %,d dropped\n",
+                    w.label, consumer.getPendingMessageCount(), consumer.getPendingByteCount(), consumer.getDroppedCount());
+            if (adaptive) {
+                raise(consumer, w);
+            }
+        }
+    }
+
+    @Override
+    public void exceptionOccurred(Connection conn, Exception exp) {
+        System.out.println("Exception " + exp.getMessage());
+    }
+
+    @Override
+    public void errorOccurred(Connection conn, String type) {
+        System.out.println("Error " + type);
+    }
+
+    /**
+     * Sample every watched consumer, called by the timer.
+     */
+    public void sample() {
+        for (Map.Entry<Consumer, Watched> e : watched.entrySet()) {
+            Consumer c = e.getKey();
+            Watched w = e.getValue();
+            synchronized (w) {
+                long msgs = c.getPendingMessageCount();
+                long bytes = c.getPendingByteCount();
+                w.peakMsgs = Math.max(w.peakMsgs, msgs);
+                w.peakBytes = Math.max(w.peakBytes, bytes);
+                if (adaptive && nearLimit(msgs, c.getPendingMessageLimit(), bytes, c.getPendingByteLimit())) {
+                    raise(c, w);
+                }
+                if (printSamples) {
+                    System.out.printf("%s: %,d delivered, pending %,d msgs %,d bytes (peak %,d / %,d), limits %,d / %,d, %,d dropped\n",
+                            w.label, c.getDeliveredCount(), msgs, bytes, w.peakMsgs, w.peakBytes,
+                            c.getPendingMessageLimit(), c.getPendingByteLimit(), c.getDroppedCount());
+                }
+                if (csv != null) {
+                    csv.printf("%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d\n", Instant.now(), w.label, c.getDeliveredCount(),
+                            msgs, bytes, w.peakMsgs, w.peakBytes, c.getPendingMessageLimit(), c.getPendingByteLimit(),
+                            c.getDroppedCount(), w.slowEvents);
+                }
+            }
+        }
+    }
+
+    private static boolean nearLimit(long msgs, long msgLimit, long bytes, long byteLimit) {
+        return (msgLimit > 0 && msgs > msgLimit * RAISE_AT) || (byteLimit > 0 && bytes > byteLimit * RAISE_AT);
+    }
+
+    private void raise(Consumer c, Watched w) {
+        long msgLimit = c.getPendingMessageLimit();
+        long byteLimit = c.getPendingByteLimit();
+        // a limit of 0 is unlimited, leave it that way, and never lower a limit already above the ceiling
+        long newMsgs = msgLimit <= 0 ? msgLimit : Math.max(msgLimit, Math.min(maxPendingMsgs, msgLimit * 2));
+        long newBytes = byteLimit <= 0 ? byteLimit : Math.max(byteLimit, Math.min(maxPendingBytes, byteLimit * 2));
+        if (newMsgs != msgLimit || newBytes != byteLimit) {
+            c.setPendingLimits(newMsgs, newBytes);
+            w.raises++;
+            System.out.printf("Raised pending limits of %s to %,d msgs, %,d bytes\n", w.label, newMsgs, newBytes);
+        }
+    }
+
+    /**
+     * Stop sampling and print a summary for every watched consumer.
+     */
+    @Override
+    public void close() {
+        timer.cancel();
+        for (Map.Entry<Consumer, Watched> e : watched.entrySet()) {
+            Consumer c = e.getKey();
+            Watched w = e.getValue();
+            synchronized (w) {
+                System.out.printf("%s: %,d delivered, %,d dropped, %,d slow consumer events, peak pending %,d msgs %,d bytes, %,d limit raises\n",
+                        w.label, c.getDeliveredCount(), c.getDroppedCount(), w.slowEvents, w.peakMsgs, w.peakBytes, w.raises);
+            }
+        }
+        if (csv != null) {
+            csv.close();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Duration sampleInterval = Duration.ofSeconds(1);
+        private String csvFile;
+        private boolean adaptive;
+        private boolean printSamples = true;
+        private long maxPendingMsgs = DEFAULT_MAX_PENDING_MSGS;
+        private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+        public Builder sampleInterval(Duration sampleInterval) {
+            this.sampleInterval = sampleInterval;
+            return this;
+        }
+
+        /**
+         * @param csvFile a file to append the samples to, null for none
+         * @return the builder
+         */
+        public Builder csvFile(String csvFile) {
+            this.csvFile = csvFile;
+            return this;
+        }
+
+        /**
+         * @param adaptive whether to raise the pending limits of consumers that fall behind
+         * @return the builder
+         */
+        public Builder adaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        /**
+         * @param printSamples whether to print every sample, the slow consumer events, raises and summary are always printed
+         * @return the builder
+         */
+        public Builder printSamples(boolean printSamples) {
+            this.printSamples = printSamples;
+            return this;
+        }
+
+        /**
+         * @param maxPendingMsgs the highest pending message limit adaptive mode raises to
+         * @return the builder
+         */
+        public Builder maxPendingMsgs(long maxPendingMsgs) {
+            this.maxPendingMsgs = maxPendingMsgs;
+            return this;
+        }
+
+        /**
+         * @param maxPendingBytes the highest pending byte limit adaptive mode raises to
+         * @return the builder
+         */
+        public Builder maxPendingBytes(long maxPendingBytes) {
+            this.maxPendingBytes = maxPendingBytes;
+            return this;
+        }
+
+        public SlowConsumerMonitor build() throws IOException {
+            return new SlowConsumerMonitor(this);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.impl.Headers;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An outbound buffer behind a publisher, in a memory-mapped file, for publishes the connection cannot take.
+ *
+ * <p>While the connection is not connected, or the client refuses a publish because its own reconnect
+ * buffer is full, messages are appended to the file instead of the heap. Once any message is spilled,
+ * later publishes are spilled too, so order is kept. A replay thread publishes them in order, in batches,
+ * once the connection is back, and only moves past a batch after a flush round trip, so a message
+ * is never lost from the file, but one could be sent twice if the connection drops during a flush.
+ *
+ * <p>The file is a ring of a fixed size, so disk use is bounded: a publish that does not fit is rejected
+ * and counted. The read and write positions live in the file header, so messages still in the file when
+ * the publisher stops are replayed by the next one that opens the same file. An existing file keeps the size
+ * it was created with, whatever capacity is asked for, and a file that is not a spill file is refused.
+ */
+public class SpillBuffer implements AutoCloseable {
+    public static final long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    public static final int DEFAULT_REPLAY_BATCH = 1000;
+
+    private static final int MAGIC = 0x5350494c; // SPIL
+    private static final int HEADER_SIZE = 64;
+    private static final int READ_POS = 8;
+    private static final int WRITE_POS = 16;
+    private static final int COUNT = 24;
+    private static final int WRAP = -1;
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+    private static final long IDLE_NANOS = 10_000_000;
+
+    private final Connection nc;
+    private final int replayBatch;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final long dataCapacity;
+    private final Thread replayThread;
+    private volatile boolean running = true;
+
+    // positions only grow, the offset in the ring is the position modulo the data capacity
+    private long readPos;
+    private long writePos;
+    private long count;
+
+    private long spilled;
+    private long spilledBytes;
+    private long replayed;
+    private long replayedBytes;
+    private long rejected;
+    private long peakBytes;
+
+    private SpillBuffer(Builder b) throws IOException {
+        this.nc = b.nc;
+        this.replayBatch = Math.max(1, b.replayBatch);
+        long capacity = Math.min(Math.max(b.capacity, HEADER_SIZE + 1024), Integer.MAX_VALUE);
+        channel = FileChannel.open(Paths.get(b.file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        boolean existing = size > 0;
+        if (existing && (size < HEADER_SIZE + 1024 || size > Integer.MAX_VALUE)) {
+            channel.close();
+            throw new IOException(b.file + " is " + size + " bytes, it is not a spill file");
+        }
+        // resizing the ring would lose the messages in it
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, existing ? size : capacity);
+        if (existing && map.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException(b.file + " is not a spill file");
+        }
+        if (existing && size != capacity) {
+            System.out.printf("Spill file %s is %,d bytes, not %,d, it keeps its size\n", b.file, size, capacity);
+            capacity = size;
+        }
+        dataCapacity = capacity - HEADER_SIZE;
+        if (existing) {
+            readPos = map.getLong(READ_POS);
+            writePos = map.getLong(WRITE_POS);
+            count = map.getLong(COUNT);
+            if (count > 0) {
+                System.out.printf("Spill file %s holds %,d messages from an earlier run, they are replayed first\n", b.file, count);
+            }
+        }
+        else {
+            map.putInt(0, MAGIC);
+            writeHeader();
+        }
+        replayThread = ExampleUtils.startThread("spill-replay", this::replayLoop, "platform");
+    }
+
+    /**
+     * Publish through the connection, or spill to the file when the connection cannot take the message.
+     * @param subject the subject
+     * @param headers the headers, may be null
+     * @param data the payload
+     * @return false if the message was spilled but did not fit, so it was dropped
+     */
+    public boolean publish(String subject, Headers headers, byte[] data) {
+        synchronized (this) {
+            if (count == 0 && nc.getStatus() == Connection.Status.CONNECTED) {
+                try {
+                    nc.publish(subject, headers, data);
+                    return true;
+                }
+                catch (IllegalStateException e) {
+                    // the client's reconnect buffer is full or the connection just dropped
+                }
+            }
+            return append(subject, headers, data);
+        }
+    }
+
+    private boolean append(String subject, Headers headers, byte[] data) {
+        byte[] subjectBytes = subject.getBytes(StandardCharsets.UTF_8);
+        byte[] hdr = headers == null || headers.isEmpty() ? new byte[0] : headers.getSerialized();
+        int len = 4 + 2 + subjectBytes.length + 4 + hdr.length + 4 + data.length;
+        long offset = writePos % dataCapacity;
+        long skip = dataCapacity - offset < len ? dataCapacity - offset : 0;
+        if (writePos + skip + len - readPos > dataCapacity) {
+            rejected++;
+            return false;
+        }
+        if (skip >= 4) {
+            map.putInt(HEADER_SIZE + (int) offset, WRAP);
+        }
+        int at = HEADER_SIZE + (int) ((writePos + skip) % dataCapacity);
+        map.putInt(at, len);
+        map.putShort(at + 4, (short) subjectBytes.length);
+        put(at + 6, subjectBytes);
+        at += 6 + subjectBytes.length;
+        map.putInt(at, hdr.length);
+        put(at + 4, hdr);
+        at += 4 + hdr.length;
+        map.putInt(at, data.length);
+        put(at + 4, data);
+
+        writePos += skip + len;
+        count++;
+        spilled++;
+        spilledBytes += data.length;
+        peakBytes = Math.max(peakBytes, writePos - readPos);
+        writeHeader();
+        return true;
+    }
+
+    // absolute bulk get and put on the map itself need Java 16
+    private void put(int at, byte[] bytes) {
+        map.duplicate().position(at).put(bytes);
+    }
+
+    private void get(int at, byte[] bytes) {
+        map.duplicate().position(at).get(bytes);
+    }
+
+    private void writeHeader() {
+        map.putLong(READ_POS, readPos);
+        map.putLong(WRITE_POS, writePos);
+        map.putLong(COUNT, count);
+    }
+
+    private void replayLoop() {
+        while (running) {
+            if (!replayBatch()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Publish the next batch from the file and move past it once the server has it.
+     * The lock is only held while copying the batch out and while moving past it, not during the flush,
+     * publishes keep going to the file meanwhile, since it is not empty, so order is kept.
+     * @return true if the batch was replayed
+     */
+    private boolean replayBatch() {
+        List<String> subjects = new ArrayList<>();
+        List<Headers> headerList = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        long pos;
+        long bytes = 0;
+        synchronized (this) {
+            if (count == 0 || nc.getStatus() != Connection.Status.CONNECTED) {
+                return false;
+            }
+            // appends never pass readPos, so the records copied here are not overwritten
+            pos = readPos;
+            while (payloads.size() < replayBatch && payloads.size() < count) {
+                long offset = pos % dataCapacity;
+                if (dataCapacity - offset < 4 || map.getInt(HEADER_SIZE + (int) offset) == WRAP) {
+                    pos += dataCapacity - offset;
+                    continue;
+                }
+                int at = HEADER_SIZE + (int) offset;
+                int len = map.getInt(at);
+                byte[] subject = new byte[map.getShort(at + 4)];
+                get(at + 6, subject);
+                at += 6 + subject.length;
+                byte[] hdr = new byte[map.getInt(at)];
+                get(at + 4, hdr);
+                at += 4 + hdr.length;
+                byte[] data = new byte[map.getInt(at)];
+                get(at + 4, data);
+
+                subjects.add(new String(subject, StandardCharsets.UTF_8));
+                headerList.add(headers(hdr));
+                payloads.add(data);
+                pos += len;
+                bytes += data.length;
+            }
+        }
+
+        try {
+            for (int x = 0; x < payloads.size(); x++) {
+                nc.publish(subjects.get(x), headerList.get(x), payloads.get(x));
+            }
+            nc.flush(FLUSH_TIMEOUT);
+        }
+        catch (Exception e) {
+            // the connection dropped again, the batch stays in the file
+            return false;
+        }
+
+        synchronized (this) {
+            readPos = pos;
+            count -= payloads.size();
+            replayed += payloads.size();
+            replayedBytes += bytes;
+            if (count == 0) {
+                // nothing left, start over at the beginning of the ring
+                readPos = writePos = 0;
+            }
+            writeHeader();
+        }
+        return true;
+    }
+
+    private static Headers headers(byte[] serialized) {
+        if (serialized.length == 0) {
+            return null;
+        }
+        Headers headers = new Headers();
+        String[] lines = new String(serialized, StandardCharsets.UTF_8).split("\r\n");
+        // the first line is the NATS/1.0 version line
+        for (int x = 1; x < lines.length; x++) {
+            int colon = lines[x].indexOf(':');
+            if (colon > 0) {
+                headers.add(lines[x].substring(0, colon), lines[x].substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Wait until every spilled message has been replayed.
+     * @param timeout how long to wait
+     * @return true if the file is empty
+     */
+    public boolean drain(Duration timeout) {
+        long end = System.nanoTime() + timeout.toNanos();
+        while (getDepth() > 0 && System.nanoTime() < end) {
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+        return getDepth() == 0;
+    }
+
+    public synchronized long getDepth() {
+        return count;
+    }
+
+    public synchronized long getSpilled() {
+        return spilled;
+    }
+
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized void printStats() {
+        System.out.printf("Spilled %,d msgs (%,d bytes), replayed %,d msgs (%,d bytes), rejected %,d, peak file use %,d of %,d bytes, %,d msgs still in the file\n",
+                spilled, spilledBytes, replayed, replayedBytes, rejected, peakBytes, dataCapacity, count);
+    }
+
+    /**
+     * Stop replaying and write the file out. Messages not replayed stay in the file for the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            replayThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            map.force();
+            channel.close();
+        }
+    }
+
+    public static Builder builder(Connection nc, String file) {
+        return new Builder(nc, file);
+    }
+
+    public static class Builder {
+        private final Connection nc;
+        private final String file;
+        private long capacity = DEFAULT_CAPACITY;
+        private int replayBatch = DEFAULT_REPLAY_BATCH;
+
+        public Builder(Connection nc, String file) {
+            this.nc = nc;
+            this.file = file;
+        }
+
+        /**
+         * @param capacity the size of the file in bytes, including a small header, at most 2GB
+         * @return the builder
+         */
+        public Builder capacity(long capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param replayBatch the messages replayed between flushes, the most that can be sent twice
+         * @return the builder
+         */
+        public Builder replayBatch(int replayBatch) {
+            this.replayBatch = replayBatch;
+            return this;
+        }
+
+        public SpillBuffer build() throws IOException {
+            return new SpillBuffer(this);
+        }
+    }
+}
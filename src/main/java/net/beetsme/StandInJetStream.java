@@ -0,0 +1,1126 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.support.JsonParser;
+import io.nats.client.support.JsonValue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * The in memory JetStream of the {@link StandInServer}. Only ever called on the server thread.
+ *
+ * <p>Supports stream create, update, info, names, delete and purge, consumer create, info and delete,
+ * pull requests ($JS.API.CONSUMER.MSG.NEXT) with batch, expires, no wait and max bytes,
+ * push consumers with flow control and idle heartbeats, delivering only while the deliver subject has interest,
+ * publish acks with Nats-Msg-Id de-duplication, the explicit, all and none ack policies,
+ * ack wait redelivery, nak, in progress and term, and the max msgs, max bytes, max age
+ * and max msgs per subject stream limits, and message get by sequence or last by subject, also as a direct get,
+ * which is what KeyValue get uses.
+ */
+class StandInJetStream {
+    static final String API_PREFIX = "$JS.API.";
+    static final String ACK_PREFIX = "$JS.ACK.";
+    static final String FC_PREFIX = "$JS.FC.";
+
+    private static final String MSG_ID_HDR = "Nats-Msg-Id";
+    private static final long DEFAULT_ACK_WAIT = 30_000_000_000L;
+    private static final long DEFAULT_DUPE_WINDOW = 120_000_000_000L;
+    private static final int DEFAULT_MAX_ACK_PENDING = 1000;
+    private static final long FLOW_CONTROL_BYTES = 256 * 1024;
+
+    private final StandInServer server;
+    private final Map<String, Stream> streams = new LinkedHashMap<>();
+    private final Map<String, Optional<Stream>> captureCache = new HashMap<>();
+
+    StandInJetStream(StandInServer server) {
+        this.server = server;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // API requests
+    // ----------------------------------------------------------------------------------------------------
+    void api(String subject, String reply, byte[] data) {
+        if (reply == null) {
+            return;
+        }
+        String[] t = subject.substring(API_PREFIX.length()).split("\\.");
+        String json;
+        try {
+            json = apiResponse(t, reply, data);
+        }
+        catch (RuntimeException e) {
+            json = error(400, 10025, "bad request: " + e.getMessage());
+        }
+        if (json != null) {
+            respond(reply, json);
+        }
+    }
+
+    private String apiResponse(String[] t, String reply, byte[] data) {
+        String op = t.length > 1 ? t[0] + "." + t[1] : t[0];
+        JsonValue req = data == null || data.length == 0 ? JsonValue.EMPTY_MAP : JsonParser.parseUnchecked(data);
+        switch (op) {
+            case "INFO":
+                return accountInfo();
+            case "STREAM.CREATE":
+                return createStream(t[2], req);
+            case "STREAM.UPDATE":
+                return updateStream(t[2], req);
+            case "STREAM.INFO":
+                return streamInfo(t[2]);
+            case "STREAM.DELETE":
+                captureCache.clear();
+                return streams.remove(t[2]) == null ? streamNotFound() : "{\"success\":true}";
+            case "STREAM.PURGE":
+                return purgeStream(t[2]);
+            case "STREAM.NAMES":
+                return streamNames(string(req, "subject", null));
+            case "STREAM.MSG":
+                return getMessage(t[3], req);
+            case "DIRECT.GET":
+                directGet(t, reply, req);
+                return null;
+            case "CONSUMER.CREATE":
+                return createConsumer(t[2], t.length > 3 ? t[3] : null, req);
+            case "CONSUMER.DURABLE":
+                return createConsumer(t[3], t[4], req);
+            case "CONSUMER.INFO":
+                return consumerInfo(t[2], t[3]);
+            case "CONSUMER.DELETE":
+                return deleteConsumer(t[2], t[3]);
+            case "CONSUMER.MSG":
+                return pullRequest(t[3], t[4], reply, data);
+        }
+        return error(400, 10025, "unsupported api " + String.join(".", t));
+    }
+
+    private String accountInfo() {
+        long memory = 0;
+        int consumers = 0;
+        for (Stream s : streams.values()) {
+            memory += s.bytes;
+            consumers += s.consumers.size();
+        }
+        return "{\"type\":\"io.nats.jetstream.api.v1.account_info_response\",\"memory\":" + memory
+                + ",\"storage\":0,\"streams\":" + streams.size() + ",\"consumers\":" + consumers
+                + ",\"limits\":{\"max_memory\":-1,\"max_storage\":-1,\"max_streams\":-1,\"max_consumers\":-1}"
+                + ",\"api\":{\"total\":0,\"errors\":0}}";
+    }
+
+    String createStream(String name, JsonValue req) {
+        Stream existing = streams.get(name);
+        if (existing != null) {
+            return streamInfo(existing, "stream_create_response");
+        }
+        Stream s = new Stream(name, streamConfig(name, req));
+        streams.put(name, s);
+        captureCache.clear();
+        return streamInfo(s, "stream_create_response");
+    }
+
+    private String updateStream(String name, JsonValue req) {
+        Stream s = streams.get(name);
+        if (s == null) {
+            return streamNotFound();
+        }
+        s.configure(streamConfig(name, req));
+        captureCache.clear();
+        s.enforceLimits(System.nanoTime());
+        return streamInfo(s, "stream_update_response");
+    }
+
+    private Map<String, JsonValue> streamConfig(String name, JsonValue req) {
+        Map<String, JsonValue> config = new LinkedHashMap<>(req.map == null ? Collections.emptyMap() : req.map);
+        config.put("name", new JsonValue(name));
+        if (!config.containsKey("subjects")) {
+            config.put("subjects", new JsonValue(Collections.singletonList(new JsonValue(name))));
+        }
+        config.putIfAbsent("retention", new JsonValue("limits"));
+        config.putIfAbsent("max_consumers", new JsonValue(-1));
+        config.putIfAbsent("max_msgs", new JsonValue(-1L));
+        config.putIfAbsent("max_bytes", new JsonValue(-1L));
+        config.putIfAbsent("max_age", new JsonValue(0L));
+        config.putIfAbsent("max_msgs_per_subject", new JsonValue(-1L));
+        config.putIfAbsent("max_msg_size", new JsonValue(-1));
+        config.putIfAbsent("discard", new JsonValue("old"));
+        config.putIfAbsent("storage", new JsonValue("file"));
+        config.putIfAbsent("num_replicas", new JsonValue(1));
+        config.putIfAbsent("duplicate_window", new JsonValue(DEFAULT_DUPE_WINDOW));
+        return config;
+    }
+
+    private String streamInfo(String name) {
+        Stream s = streams.get(name);
+        return s == null ? streamNotFound() : streamInfo(s, "stream_info_response");
+    }
+
+    private String streamInfo(Stream s, String type) {
+        Map<String, JsonValue> state = new LinkedHashMap<>();
+        state.put("messages", new JsonValue(s.msgCount));
+        state.put("bytes", new JsonValue(s.bytes));
+        state.put("first_seq", new JsonValue(s.msgCount == 0 ? s.lastSeq + 1 : s.log.firstSeq()));
+        state.put("last_seq", new JsonValue(s.lastSeq));
+        state.put("consumer_count", new JsonValue(s.consumers.size()));
+        Map<String, JsonValue> info = new LinkedHashMap<>();
+        info.put("type", new JsonValue("io.nats.jetstream.api.v1." + type));
+        info.put("config", new JsonValue(s.config));
+        info.put("created", new JsonValue(time(s.created)));
+        info.put("state", new JsonValue(state));
+        return new JsonValue(info).toJson();
+    }
+
+    private String purgeStream(String name) {
+        Stream s = streams.get(name);
+        if (s == null) {
+            return streamNotFound();
+        }
+        long purged = s.msgCount;
+        while (s.msgCount > 0) {
+            s.removeFirst();
+        }
+        return "{\"success\":true,\"purged\":" + purged + "}";
+    }
+
+    private String streamNames(String subject) {
+        List<JsonValue> names = new ArrayList<>();
+        for (Stream s : streams.values()) {
+            if (subject == null || s.captures(subject.split("\\."))) {
+                names.add(new JsonValue(s.name));
+            }
+        }
+        Map<String, JsonValue> resp = new LinkedHashMap<>();
+        resp.put("type", new JsonValue("io.nats.jetstream.api.v1.stream_names_response"));
+        resp.put("total", new JsonValue(names.size()));
+        resp.put("offset", new JsonValue(0));
+        resp.put("limit", new JsonValue(1024));
+        resp.put("streams", new JsonValue(names));
+        return new JsonValue(resp).toJson();
+    }
+
+    private String getMessage(String name, JsonValue req) {
+        Stream s = streams.get(name);
+        if (s == null) {
+            return streamNotFound();
+        }
+        StoredMsg m;
+        String lastBySubject = string(req, "last_by_subj", null);
+        if (lastBySubject != null) {
+            Long seq = lastSeq(s, lastBySubject);
+            m = seq == null ? null : s.log.get(seq);
+        }
+        else {
+            m = s.log.get(number(req, "seq", 0));
+        }
+        if (m == null) {
+            return error(404, 10037, "no message found");
+        }
+        Map<String, JsonValue> msg = new LinkedHashMap<>();
+        msg.put("subject", new JsonValue(m.subject));
+        msg.put("seq", new JsonValue(m.seq));
+        if (m.hdr != null) {
+            msg.put("hdrs", new JsonValue(Base64.getEncoder().encodeToString(m.hdr)));
+        }
+        msg.put("data", new JsonValue(Base64.getEncoder().encodeToString(m.data)));
+        msg.put("time", new JsonValue(time(m.timestamp)));
+        return "{\"type\":\"io.nats.jetstream.api.v1.stream_msg_get_response\",\"message\":" + new JsonValue(msg).toJson() + "}";
+    }
+
+    /**
+     * The sequence of the last message on a subject, which may have wildcards, as a KeyValue watch asks for.
+     */
+    private static Long lastSeq(Stream s, String subject) {
+        if (!subject.contains("*") && !subject.contains(">")) {
+            return s.lastBySubject.get(subject);
+        }
+        String[] filter = subject.split("\\.");
+        Long last = null;
+        for (Map.Entry<String, Long> e : s.lastBySubject.entrySet()) {
+            if ((last == null || e.getValue() > last) && StandInServer.matches(filter, e.getKey().split("\\."))) {
+                last = e.getValue();
+            }
+        }
+        return last;
+    }
+
+    /**
+     * A direct get answers with the message itself, the stream, subject, sequence and time in headers
+     * ahead of its own, or a 404 status. The subject is the last tokens of the api subject, or in the request.
+     */
+    private void directGet(String[] t, String reply, JsonValue req) {
+        Stream s = streams.get(t[2]);
+        StoredMsg m = null;
+        if (s != null) {
+            String lastBySubject = t.length > 3 ? String.join(".", Arrays.copyOfRange(t, 3, t.length)) : string(req, "last_by_subj", null);
+            if (lastBySubject != null) {
+                Long seq = lastSeq(s, lastBySubject);
+                m = seq == null ? null : s.log.get(seq);
+            }
+            else {
+                m = s.log.get(number(req, "seq", 0));
+            }
+        }
+        if (m == null) {
+            server.deliverStatus(reply, 404, "Message Not Found");
+            return;
+        }
+        StringBuilder hdr = new StringBuilder("NATS/1.0\r\n")
+                .append("Nats-Stream: ").append(s.name).append("\r\n")
+                .append("Nats-Subject: ").append(m.subject).append("\r\n")
+                .append("Nats-Sequence: ").append(m.seq).append("\r\n")
+                .append("Nats-Time-Stamp: ").append(time(m.timestamp)).append("\r\n");
+        if (m.hdr != null) {
+            // the stored headers without their version line and the blank line that ends them
+            String own = new String(m.hdr, StandardCharsets.UTF_8);
+            int start = own.indexOf("\r\n") + 2;
+            int end = own.endsWith("\r\n\r\n") ? own.length() - 2 : own.length();
+            if (start > 1 && start < end) {
+                hdr.append(own, start, end);
+            }
+        }
+        hdr.append("\r\n");
+        server.deliver(reply, null, hdr.toString().getBytes(StandardCharsets.UTF_8), m.data);
+    }
+
+    private String createConsumer(String streamName, String name, JsonValue req) {
+        Stream s = streams.get(streamName);
+        if (s == null) {
+            return streamNotFound();
+        }
+        JsonValue cfg = req.map == null ? null : req.map.get("config");
+        Map<String, JsonValue> config = new LinkedHashMap<>(cfg == null || cfg.map == null ? Collections.emptyMap() : cfg.map);
+        if (name == null) {
+            name = string(cfg, "durable_name", string(cfg, "name", null));
+        }
+        if (name == null) {
+            name = ExampleUtils.randomString(8).substring(0, 8).toUpperCase();
+        }
+        Consumer existing = s.consumers.get(name);
+        if (existing != null) {
+            return consumerInfo(existing, "consumer_create_response");
+        }
+        config.put("name", new JsonValue(name));
+        config.putIfAbsent("deliver_policy", new JsonValue("all"));
+        config.putIfAbsent("ack_policy", new JsonValue("explicit"));
+        config.putIfAbsent("ack_wait", new JsonValue(DEFAULT_ACK_WAIT));
+        config.putIfAbsent("max_deliver", new JsonValue(-1L));
+        config.putIfAbsent("replay_policy", new JsonValue("instant"));
+        config.putIfAbsent("max_ack_pending", new JsonValue((long) DEFAULT_MAX_ACK_PENDING));
+        if (!config.containsKey("deliver_subject")) {
+            config.putIfAbsent("max_waiting", new JsonValue(512L));
+        }
+        Consumer c = new Consumer(s, name, config);
+        s.consumers.put(name, c);
+        return consumerInfo(c, "consumer_create_response");
+    }
+
+    private String consumerInfo(String streamName, String name) {
+        Stream s = streams.get(streamName);
+        if (s == null) {
+            return streamNotFound();
+        }
+        Consumer c = s.consumers.get(name);
+        return c == null ? consumerNotFound() : consumerInfo(c, "consumer_info_response");
+    }
+
+    private String consumerInfo(Consumer c, String type) {
+        Map<String, JsonValue> info = new LinkedHashMap<>();
+        info.put("type", new JsonValue("io.nats.jetstream.api.v1." + type));
+        info.put("stream_name", new JsonValue(c.stream.name));
+        info.put("name", new JsonValue(c.name));
+        info.put("created", new JsonValue(time(c.created)));
+        info.put("config", new JsonValue(c.config));
+        info.put("delivered", sequencePair(c.consumerSeq, c.deliveredStreamSeq));
+        long ackFloorStream = c.pending.isEmpty() ? c.deliveredStreamSeq : c.pending.keySet().iterator().next() - 1;
+        info.put("ack_floor", sequencePair(c.ackFloorConsumerSeq, ackFloorStream));
+        info.put("num_ack_pending", new JsonValue((long) c.pending.size()));
+        info.put("num_redelivered", new JsonValue(c.redelivered));
+        info.put("num_waiting", new JsonValue((long) c.waiting.size()));
+        info.put("num_pending", new JsonValue(c.numPending()));
+        return new JsonValue(info).toJson();
+    }
+
+    private static JsonValue sequencePair(long consumerSeq, long streamSeq) {
+        Map<String, JsonValue> map = new LinkedHashMap<>();
+        map.put("consumer_seq", new JsonValue(consumerSeq));
+        map.put("stream_seq", new JsonValue(streamSeq));
+        return new JsonValue(map);
+    }
+
+    private String deleteConsumer(String streamName, String name) {
+        Stream s = streams.get(streamName);
+        if (s == null) {
+            return streamNotFound();
+        }
+        return s.consumers.remove(name) == null ? consumerNotFound() : "{\"success\":true}";
+    }
+
+    /**
+     * A pull request, the messages and status go to the request's reply subject.
+     * @return null unless there is an error to respond with
+     */
+    private String pullRequest(String streamName, String name, String reply, byte[] data) {
+        Stream s = streams.get(streamName);
+        Consumer c = s == null ? null : s.consumers.get(name);
+        if (c == null) {
+            return consumerNotFound();
+        }
+        String body = data == null ? "" : new String(data, StandardCharsets.UTF_8).trim();
+        int batch;
+        long maxBytes = 0;
+        boolean noWait = false;
+        long expires = 0;
+        if (body.startsWith("{")) {
+            JsonValue req = JsonParser.parseUnchecked(body);
+            batch = (int) number(req, "batch", 1);
+            maxBytes = number(req, "max_bytes", 0);
+            noWait = bool(req, "no_wait");
+            expires = number(req, "expires", 0);
+        }
+        else {
+            batch = body.isEmpty() ? 1 : Integer.parseInt(body);
+        }
+        long expiresAt = expires > 0 ? System.nanoTime() + expires : 0;
+        c.pull(new PullRequest(reply, Math.max(1, batch), maxBytes, noWait, expiresAt));
+        return null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // publish capture, acks and timers
+    // ----------------------------------------------------------------------------------------------------
+    /**
+     * Store a published message in the stream whose subjects match, and send the publish ack.
+     * @return true if a stream captured the message
+     */
+    boolean capture(String subject, String reply, byte[] hdr, byte[] data) {
+        if (streams.isEmpty()) {
+            return false;
+        }
+        Optional<Stream> captured = captureCache.get(subject);
+        if (captured == null) {
+            captured = findStream(subject.split("\\."));
+            if (captureCache.size() > 10_000) {
+                captureCache.clear();
+            }
+            captureCache.put(subject, captured);
+        }
+        if (!captured.isPresent()) {
+            return false;
+        }
+        String ack = captured.get().store(subject, hdr, data);
+        if (reply != null) {
+            respond(reply, ack);
+        }
+        return true;
+    }
+
+    private Optional<Stream> findStream(String[] tokens) {
+        for (Stream s : streams.values()) {
+            if (s.captures(tokens)) {
+                return Optional.of(s);
+            }
+        }
+        return Optional.empty();
+    }
+
+    void ack(String subject, String reply, byte[] data) {
+        // $JS.ACK.<stream>.<consumer>.<delivered>.<stream seq>.<consumer seq>.<timestamp>.<pending>
+        String[] t = subject.split("\\.");
+        if (t.length < 9) {
+            return;
+        }
+        Stream s = streams.get(t[2]);
+        Consumer c = s == null ? null : s.consumers.get(t[3]);
+        if (c != null) {
+            String body = data == null ? "" : new String(data, StandardCharsets.US_ASCII).trim();
+            c.ack(Long.parseLong(t[5]), Long.parseLong(t[6]), body);
+        }
+        if (reply != null) {
+            server.deliver(reply, null, null, new byte[0]);
+        }
+    }
+
+    /**
+     * A flow control request was answered, a push consumer stalled on it can carry on.
+     * @param subject $JS.FC.&lt;stream&gt;.&lt;consumer&gt;.&lt;id&gt;
+     */
+    void flowControlReply(String subject) {
+        String[] t = subject.split("\\.");
+        Stream s = t.length < 4 ? null : streams.get(t[2]);
+        Consumer c = s == null ? null : s.consumers.get(t[3]);
+        if (c != null && subject.equals(c.flowControlReply)) {
+            c.flowControlReply = null;
+            c.dispatch();
+        }
+    }
+
+    /**
+     * There is a new subscription, push consumers waiting for interest in their deliver subject can start.
+     */
+    void interest() {
+        for (Stream s : streams.values()) {
+            for (Consumer c : s.consumers.values()) {
+                if (c.deliverSubject != null) {
+                    c.dispatch();
+                }
+            }
+        }
+    }
+
+    void tick(long now) {
+        for (Stream s : streams.values()) {
+            s.enforceLimits(now);
+            for (Consumer c : s.consumers.values()) {
+                c.tick(now);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // helpers
+    // ----------------------------------------------------------------------------------------------------
+    private void respond(String reply, String json) {
+        server.deliver(reply, null, null, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String error(int code, int errCode, String description) {
+        return "{\"type\":\"io.nats.jetstream.api.v1.error_response\",\"error\":{\"code\":" + code
+                + ",\"err_code\":" + errCode + ",\"description\":\"" + description + "\"}}";
+    }
+
+    private static String streamNotFound() {
+        return error(404, 10059, "stream not found");
+    }
+
+    private static String consumerNotFound() {
+        return error(404, 10014, "consumer not found");
+    }
+
+    private static String string(JsonValue jv, String key, String dflt) {
+        JsonValue v = jv == null || jv.map == null ? null : jv.map.get(key);
+        return v == null || v.string == null ? dflt : v.string;
+    }
+
+    private static long number(JsonValue jv, String key, long dflt) {
+        JsonValue v = jv == null || jv.map == null ? null : jv.map.get(key);
+        return v == null || v.number == null ? dflt : v.number.longValue();
+    }
+
+    private static boolean bool(JsonValue jv, String key) {
+        JsonValue v = jv == null || jv.map == null ? null : jv.map.get(key);
+        return v != null && Boolean.TRUE.equals(v.bool);
+    }
+
+    private static long epochNanos() {
+        return ExampleUtils.epochNanos();
+    }
+
+    private static String time(long epochNanos) {
+        return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(0, epochNanos));
+    }
+
+    /**
+     * The value of a header in serialized header bytes, without building Headers.
+     */
+    static String headerValue(byte[] hdr, String key) {
+        if (hdr == null) {
+            return null;
+        }
+        String s = new String(hdr, StandardCharsets.UTF_8);
+        int lineStart = s.indexOf("\r\n");
+        while (lineStart >= 0 && lineStart + 2 < s.length()) {
+            int lineEnd = s.indexOf("\r\n", lineStart + 2);
+            if (lineEnd < 0) {
+                break;
+            }
+            String line = s.substring(lineStart + 2, lineEnd);
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(key)) {
+                return line.substring(colon + 1).trim();
+            }
+            lineStart = lineEnd;
+        }
+        return null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // model
+    // ----------------------------------------------------------------------------------------------------
+    static class StoredMsg {
+        final long seq;
+        final String subject;
+        final byte[] hdr;
+        final byte[] data;
+        final long timestamp;
+        final long arrived;
+
+        StoredMsg(long seq, String subject, byte[] hdr, byte[] data, long timestamp, long arrived) {
+            this.seq = seq;
+            this.subject = subject;
+            this.hdr = hdr;
+            this.data = data;
+            this.timestamp = timestamp;
+            this.arrived = arrived;
+        }
+
+        int size() {
+            return subject.length() + (hdr == null ? 0 : hdr.length) + data.length;
+        }
+    }
+
+    /**
+     * Messages by sequence. Removal from the front is cheap, removal from the middle leaves a hole.
+     */
+    static class MsgLog {
+        private final ArrayList<StoredMsg> list = new ArrayList<>();
+        private int offset;
+        private long firstSeq = 1;
+
+        StoredMsg get(long seq) {
+            long ix = seq - firstSeq + offset;
+            return seq < firstSeq || ix >= list.size() ? null : list.get((int) ix);
+        }
+
+        void append(StoredMsg m) {
+            if (offset == list.size()) {
+                list.clear();
+                offset = 0;
+                firstSeq = m.seq;
+            }
+            list.add(m);
+        }
+
+        StoredMsg removeFirst() {
+            while (offset < list.size()) {
+                StoredMsg m = list.set(offset++, null);
+                firstSeq++;
+                if (m != null) {
+                    compact();
+                    return m;
+                }
+            }
+            return null;
+        }
+
+        StoredMsg remove(long seq) {
+            long ix = seq - firstSeq + offset;
+            if (seq < firstSeq || ix >= list.size()) {
+                return null;
+            }
+            return list.set((int) ix, null);
+        }
+
+        StoredMsg first() {
+            for (int x = offset; x < list.size(); x++) {
+                if (list.get(x) != null) {
+                    return list.get(x);
+                }
+            }
+            return null;
+        }
+
+        long firstSeq() {
+            StoredMsg m = first();
+            return m == null ? firstSeq : m.seq;
+        }
+
+        private void compact() {
+            if (offset > 1024 && offset > list.size() / 2) {
+                list.subList(0, offset).clear();
+                offset = 0;
+            }
+        }
+    }
+
+    class Stream {
+        final String name;
+        final long created = epochNanos();
+        final MsgLog log = new MsgLog();
+        final Map<String, Consumer> consumers = new LinkedHashMap<>();
+        final Map<String, Long> lastBySubject = new HashMap<>();
+        final Map<String, ArrayDeque<Long>> bySubject = new HashMap<>();
+        final LinkedHashMap<String, long[]> dupes = new LinkedHashMap<>();
+        Map<String, JsonValue> config;
+        List<String[]> subjects;
+        long maxMsgs;
+        long maxBytes;
+        long maxAge;
+        long maxMsgsPerSubject;
+        long dupeWindow;
+        boolean discardNew;
+        boolean workQueue;
+        long lastSeq;
+        long msgCount;
+        long bytes;
+
+        Stream(String name, Map<String, JsonValue> config) {
+            this.name = name;
+            configure(config);
+        }
+
+        void configure(Map<String, JsonValue> config) {
+            this.config = config;
+            JsonValue jv = new JsonValue(config);
+            subjects = new ArrayList<>();
+            JsonValue subs = config.get("subjects");
+            if (subs != null && subs.array != null) {
+                for (JsonValue v : subs.array) {
+                    subjects.add(v.string.split("\\."));
+                }
+            }
+            maxMsgs = number(jv, "max_msgs", -1);
+            maxBytes = number(jv, "max_bytes", -1);
+            maxAge = number(jv, "max_age", 0);
+            maxMsgsPerSubject = number(jv, "max_msgs_per_subject", -1);
+            dupeWindow = number(jv, "duplicate_window", DEFAULT_DUPE_WINDOW);
+            discardNew = "new".equals(string(jv, "discard", "old"));
+            workQueue = "workqueue".equals(string(jv, "retention", "limits"));
+        }
+
+        boolean captures(String[] tokens) {
+            for (String[] filter : subjects) {
+                if (StandInServer.matches(filter, tokens)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String store(String subject, byte[] hdr, byte[] data) {
+            long now = System.nanoTime();
+            String msgId = headerValue(hdr, MSG_ID_HDR);
+            if (msgId != null) {
+                expireDupes(now);
+                long[] dupe = dupes.get(msgId);
+                if (dupe != null) {
+                    return "{\"stream\":\"" + name + "\",\"seq\":" + dupe[0] + ",\"duplicate\":true}";
+                }
+            }
+            if (discardNew && ((maxMsgs > 0 && msgCount >= maxMsgs) || (maxBytes > 0 && bytes + data.length > maxBytes))) {
+                return error(503, 10077, "maximum messages exceeded");
+            }
+
+            StoredMsg m = new StoredMsg(++lastSeq, subject, hdr, data, epochNanos(), now);
+            log.append(m);
+            msgCount++;
+            bytes += m.size();
+            lastBySubject.put(subject, m.seq);
+            if (maxMsgsPerSubject > 0) {
+                ArrayDeque<Long> seqs = bySubject.computeIfAbsent(subject, k -> new ArrayDeque<>());
+                seqs.add(m.seq);
+                while (seqs.size() > maxMsgsPerSubject) {
+                    remove(seqs.peekFirst());
+                }
+            }
+            if (msgId != null) {
+                dupes.put(msgId, new long[]{m.seq, now});
+            }
+            enforceLimits(now);
+
+            for (Consumer c : consumers.values()) {
+                c.dispatch();
+            }
+            return "{\"stream\":\"" + name + "\",\"seq\":" + m.seq + "}";
+        }
+
+        void enforceLimits(long now) {
+            while (msgCount > 0 && ((maxMsgs > 0 && msgCount > maxMsgs) || (maxBytes > 0 && bytes > maxBytes))) {
+                removeFirst();
+            }
+            if (maxAge > 0) {
+                StoredMsg first = log.first();
+                while (first != null && now - first.arrived > maxAge) {
+                    removeFirst();
+                    first = log.first();
+                }
+            }
+        }
+
+        private void expireDupes(long now) {
+            Iterator<long[]> it = dupes.values().iterator();
+            while (it.hasNext() && now - it.next()[1] > dupeWindow) {
+                it.remove();
+            }
+        }
+
+        void removeFirst() {
+            StoredMsg m = log.removeFirst();
+            if (m != null) {
+                removed(m);
+            }
+        }
+
+        void remove(long seq) {
+            StoredMsg m = log.remove(seq);
+            if (m != null) {
+                removed(m);
+            }
+        }
+
+        private void removed(StoredMsg m) {
+            msgCount--;
+            bytes -= m.size();
+            Long last = lastBySubject.get(m.subject);
+            if (last != null && last == m.seq) {
+                lastBySubject.remove(m.subject);
+            }
+            ArrayDeque<Long> seqs = bySubject.get(m.subject);
+            if (seqs != null) {
+                seqs.remove(m.seq);
+                if (seqs.isEmpty()) {
+                    bySubject.remove(m.subject);
+                }
+            }
+        }
+    }
+
+    static class PullRequest {
+        final String reply;
+        final int batch;
+        final long maxBytes;
+        final boolean noWait;
+        final long expiresAt;
+        int delivered;
+        long bytes;
+
+        PullRequest(String reply, int batch, long maxBytes, boolean noWait, long expiresAt) {
+            this.reply = reply;
+            this.batch = batch;
+            this.maxBytes = maxBytes;
+            this.noWait = noWait;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    static class Pending {
+        final long streamSeq;
+        final long consumerSeq;
+        final int deliveries;
+        long deadline;
+
+        Pending(long streamSeq, long consumerSeq, int deliveries, long deadline) {
+            this.streamSeq = streamSeq;
+            this.consumerSeq = consumerSeq;
+            this.deliveries = deliveries;
+            this.deadline = deadline;
+        }
+    }
+
+    class Consumer {
+        final Stream stream;
+        final String name;
+        final Map<String, JsonValue> config;
+        final long created = epochNanos();
+        final String[] filter;
+        final String ackPolicy;
+        final long ackWait;
+        final long maxDeliver;
+        final long maxAckPending;
+        final String deliverSubject;
+        final boolean flowControl;
+        final long idleHeartbeat;
+        final ArrayDeque<PullRequest> waiting = new ArrayDeque<>();
+        final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+        final ArrayDeque<long[]> redeliver = new ArrayDeque<>();
+        final ArrayDeque<Long> initial = new ArrayDeque<>();
+        long nextSeq;
+        long consumerSeq;
+        long deliveredStreamSeq;
+        long ackFloorConsumerSeq;
+        long redelivered;
+        long lastSent = System.nanoTime();
+        long flowControlBytes;
+        long flowControlCount;
+        String flowControlReply;
+
+        Consumer(Stream stream, String name, Map<String, JsonValue> config) {
+            this.stream = stream;
+            this.name = name;
+            this.config = config;
+            JsonValue jv = new JsonValue(config);
+            String fs = string(jv, "filter_subject", null);
+            filter = fs == null || fs.isEmpty() ? null : fs.split("\\.");
+            ackPolicy = string(jv, "ack_policy", "explicit");
+            ackWait = number(jv, "ack_wait", DEFAULT_ACK_WAIT);
+            maxDeliver = number(jv, "max_deliver", -1);
+            maxAckPending = number(jv, "max_ack_pending", DEFAULT_MAX_ACK_PENDING);
+            deliverSubject = string(jv, "deliver_subject", null);
+            flowControl = bool(jv, "flow_control");
+            idleHeartbeat = number(jv, "idle_heartbeat", 0);
+
+            switch (string(jv, "deliver_policy", "all")) {
+                case "last":
+                    nextSeq = Math.max(stream.lastSeq, 1);
+                    break;
+                case "new":
+                    nextSeq = stream.lastSeq + 1;
+                    break;
+                case "by_start_sequence":
+                    nextSeq = number(jv, "opt_start_seq", 1);
+                    break;
+                case "last_per_subject":
+                    List<Long> seqs = new ArrayList<>();
+                    for (Map.Entry<String, Long> e : stream.lastBySubject.entrySet()) {
+                        if (filter == null || StandInServer.matches(filter, e.getKey().split("\\."))) {
+                            seqs.add(e.getValue());
+                        }
+                    }
+                    Collections.sort(seqs);
+                    initial.addAll(seqs);
+                    nextSeq = stream.lastSeq + 1;
+                    break;
+                default:
+                    nextSeq = 1;
+                    break;
+            }
+        }
+
+        boolean acks() {
+            return !"none".equals(ackPolicy);
+        }
+
+        long numPending() {
+            long count = initial.size();
+            for (long seq = Math.max(nextSeq, stream.log.firstSeq()); seq <= stream.lastSeq; seq++) {
+                StoredMsg m = stream.log.get(seq);
+                if (m != null && (filter == null || StandInServer.matches(filter, m.subject.split("\\.")))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        void pull(PullRequest pr) {
+            waiting.add(pr);
+            dispatch();
+        }
+
+        void dispatch() {
+            if (deliverSubject != null) {
+                push();
+                return;
+            }
+            while (!waiting.isEmpty()) {
+                PullRequest pr = waiting.peekFirst();
+                if (acks() && pending.size() >= maxAckPending) {
+                    return;
+                }
+                long[] next = next();
+                if (next == null) {
+                    // no wait with expires waits for the first message, then returns what is there
+                    if (pr.noWait && (pr.expiresAt == 0 || pr.delivered > 0)) {
+                        waiting.pollFirst();
+                        if (pr.delivered == 0) {
+                            server.deliverStatus(pr.reply, 404, "No Messages");
+                        }
+                        continue;
+                    }
+                    return;
+                }
+                StoredMsg m = stream.log.get(next[0]);
+                if (pr.maxBytes > 0 && pr.bytes + m.size() > pr.maxBytes) {
+                    unread(next);
+                    waiting.pollFirst();
+                    server.deliverStatus(pr.reply, 409, "Message Size Exceeds MaxBytes");
+                    continue;
+                }
+                deliver(pr.reply, m, (int) next[1]);
+                pr.bytes += m.size();
+                if (++pr.delivered == pr.batch) {
+                    waiting.pollFirst();
+                }
+            }
+        }
+
+        /**
+         * Deliver to the deliver subject while it has interest and max ack pending allows.
+         * With flow control a request goes out every window of bytes, and delivery stalls
+         * when a second window is full before the first request was answered.
+         */
+        private void push() {
+            while (server.hasInterest(deliverSubject)) {
+                if (acks() && pending.size() >= maxAckPending) {
+                    return;
+                }
+                if (flowControl && flowControlBytes >= FLOW_CONTROL_BYTES) {
+                    if (flowControlReply != null) {
+                        return;
+                    }
+                    flowControlReply = FC_PREFIX + stream.name + "." + name + "." + (++flowControlCount);
+                    server.deliverStatus(deliverSubject, 100, "FlowControl Request", flowControlReply, null);
+                    flowControlBytes = 0;
+                }
+                long[] next = next();
+                if (next == null) {
+                    return;
+                }
+                StoredMsg m = stream.log.get(next[0]);
+                deliver(deliverSubject, m, (int) next[1]);
+                flowControlBytes += m.size();
+            }
+        }
+
+        /**
+         * The next message to deliver, redeliveries first.
+         * @return {stream seq, delivery count} or null if there is nothing to deliver
+         */
+        private long[] next() {
+            while (!redeliver.isEmpty()) {
+                long[] r = redeliver.pollFirst();
+                if (stream.log.get(r[0]) != null) {
+                    return r;
+                }
+            }
+            while (!initial.isEmpty()) {
+                long seq = initial.pollFirst();
+                if (stream.log.get(seq) != null) {
+                    return new long[]{seq, 1};
+                }
+            }
+            nextSeq = Math.max(nextSeq, stream.log.firstSeq());
+            while (nextSeq <= stream.lastSeq) {
+                StoredMsg m = stream.log.get(nextSeq++);
+                if (m != null && (filter == null || StandInServer.matches(filter, m.subject.split("\\.")))) {
+                    return new long[]{m.seq, 1};
+                }
+            }
+            return null;
+        }
+
+        private void unread(long[] next) {
+            if (next[1] > 1) {
+                redeliver.addFirst(next);
+            }
+            else {
+                nextSeq = Math.min(nextSeq, next[0]);
+            }
+        }
+
+        private void deliver(String to, StoredMsg m, int deliveries) {
+            long cseq = ++consumerSeq;
+            deliveredStreamSeq = Math.max(deliveredStreamSeq, m.seq);
+            if (deliveries > 1) {
+                redelivered++;
+            }
+            String ackSubject = ACK_PREFIX + stream.name + "." + name + "." + deliveries + "." + m.seq + "." + cseq
+                    + "." + m.timestamp + "." + Math.max(0, stream.lastSeq - m.seq);
+            if (acks()) {
+                pending.put(m.seq, new Pending(m.seq, cseq, deliveries, System.nanoTime() + ackWait));
+            }
+            else {
+                ackFloorConsumerSeq = cseq;
+            }
+            lastSent = System.nanoTime();
+            server.deliver(to, m.subject, ackSubject, m.hdr, m.data);
+        }
+
+        void ack(long streamSeq, long cseq, String body) {
+            if (body.isEmpty() || body.startsWith("+ACK") || body.startsWith("+NXT")) {
+                if ("all".equals(ackPolicy)) {
+                    Iterator<Pending> it = pending.values().iterator();
+                    while (it.hasNext()) {
+                        Pending p = it.next();
+                        if (p.consumerSeq <= cseq) {
+                            it.remove();
+                            acked(p);
+                        }
+                    }
+                }
+                else {
+                    Pending p = pending.remove(streamSeq);
+                    if (p != null) {
+                        acked(p);
+                    }
+                }
+            }
+            else if (body.startsWith("-NAK")) {
+                Pending p = pending.remove(streamSeq);
+                if (p != null) {
+                    redeliver(p);
+                }
+            }
+            else if (body.startsWith("+WPI")) {
+                Pending p = pending.remove(streamSeq);
+                if (p != null) {
+                    p.deadline = System.nanoTime() + ackWait;
+                    pending.put(streamSeq, p);
+                }
+            }
+            else if (body.startsWith("+TERM")) {
+                Pending p = pending.remove(streamSeq);
+                if (p != null) {
+                    acked(p);
+                }
+            }
+            dispatch();
+        }
+
+        private void acked(Pending p) {
+            ackFloorConsumerSeq = Math.max(ackFloorConsumerSeq, p.consumerSeq);
+            if (stream.workQueue) {
+                stream.remove(p.streamSeq);
+            }
+        }
+
+        private void redeliver(Pending p) {
+            if (maxDeliver > 0 && p.deliveries >= maxDeliver) {
+                return;
+            }
+            redeliver.add(new long[]{p.streamSeq, p.deliveries + 1});
+        }
+
+        void tick(long now) {
+            if (deliverSubject != null) {
+                // a consumer created after its subscription starts here, after the create response
+                push();
+            }
+            if (deliverSubject != null && idleHeartbeat > 0 && now - lastSent >= idleHeartbeat && server.hasInterest(deliverSubject)) {
+                lastSent = now;
+                server.deliverStatus(deliverSubject, 100, "Idle Heartbeat", null,
+                        "Nats-Last-Consumer: " + consumerSeq + "\r\nNats-Last-Stream: " + deliveredStreamSeq + "\r\n"
+                                + (flowControlReply == null ? "" : "Nats-Consumer-Stalled: " + flowControlReply + "\r\n"));
+            }
+
+            Iterator<PullRequest> prs = waiting.iterator();
+            while (prs.hasNext()) {
+                PullRequest pr = prs.next();
+                if (pr.expiresAt > 0 && now - pr.expiresAt >= 0) {
+                    prs.remove();
+                    server.deliverStatus(pr.reply, 408, "Request Timeout");
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                boolean expired = false;
+                Iterator<Pending> it = pending.values().iterator();
+                while (it.hasNext()) {
+                    Pending p = it.next();
+                    if (now - p.deadline < 0) {
+                        // in progress acks move a message to the end, so keep looking
+                        continue;
+                    }
+                    it.remove();
+                    redeliver(p);
+                    expired = true;
+                }
+                if (expired) {
+                    dispatch();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,839 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.support.JsonParser;
+import io.nats.client.support.JsonValue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A small in-process stand-in for nats-server, for running and profiling the examples without a real server.
+ *
+ * <p>Speaks enough of the core protocol for the examples: CONNECT, PING/PONG, SUB/UNSUB with wildcards,
+ * queue groups and auto unsubscribe, PUB/HPUB, MSG/HMSG and no responders. JetStream is in memory
+ * and covers what the JetStream examples use, see {@link StandInJetStream}.
+ *
+ * <p>Everything runs on one selector thread, so there is no locking and latency is predictable,
+ * but it is not a substitute for a real server: no auth, no clustering, no persistence, no TLS.
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; net.beetsme.StandInServer [-p port] [-strm stream -sub subject]*
+ * </pre>
+ */
+public class StandInServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 4222;
+    static final String VERSION = "2.9.0";
+
+    private static final byte[] PING = "PING\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG = "PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_CONTROL_LINE = 4096;
+    private static final int MAX_PAYLOAD = 1024 * 1024;
+    private static final int MAX_PENDING_OUT = 256 * 1024 * 1024;
+    private static final long TICK_MILLIS = 10;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final int port;
+    private final StandInJetStream jetStream;
+    private final List<Client> dirty = new ArrayList<>();
+    private final List<Sub> subs = new ArrayList<>();
+    private final Map<String, Sub[]> matchCache = new HashMap<>();
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+    private long nextClientId;
+
+    private StandInServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        jetStream = new StandInJetStream(this);
+        thread = new Thread(this::run, "standin-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Start a stand-in on a free port.
+     * @return the running server
+     * @throws IOException if the socket cannot be opened
+     */
+    public static StandInServer start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Start a stand-in on the given port.
+     * @param port the port, 0 for any free port
+     * @return the running server
+     * @throws IOException if the socket cannot be opened
+     */
+    public static StandInServer start(int port) throws IOException {
+        StandInServer s = new StandInServer(port);
+        s.thread.start();
+        return s;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUrl() {
+        return "nats://127.0.0.1:" + port;
+    }
+
+    /**
+     * Create a stream before any client connects, the same as a client sending STREAM.CREATE.
+     * @param stream the stream name
+     * @param subjects the subjects the stream captures
+     */
+    public void addStream(String stream, String... subjects) {
+        Map<String, JsonValue> config = new HashMap<>();
+        config.put("name", new JsonValue(stream));
+        List<JsonValue> subjectList = new ArrayList<>();
+        for (String s : subjects) {
+            subjectList.add(new JsonValue(s));
+        }
+        config.put("subjects", new JsonValue(subjectList));
+        byte[] request = new JsonValue(config).toJson().getBytes(StandardCharsets.UTF_8);
+        CountDownLatch done = new CountDownLatch(1);
+        execute(() -> {
+            jetStream.createStream(stream, JsonParser.parseUnchecked(request));
+            done.countDown();
+        });
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a task on the server thread.
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the server and wait for its thread to finish. If interrupted while waiting, the interrupt is kept.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            stopped.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // selector loop
+    // ----------------------------------------------------------------------------------------------------
+    private void run() {
+        long nextTick = System.currentTimeMillis() + TICK_MILLIS;
+        try {
+            while (running) {
+                selector.select(TICK_MILLIS);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        else {
+                            Client c = (Client) key.attachment();
+                            if (key.isReadable()) {
+                                read(c);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(c);
+                            }
+                        }
+                    }
+                    catch (IOException | RuntimeException e) {
+                        if (key.attachment() instanceof Client) {
+                            closeClient((Client) key.attachment());
+                        }
+                    }
+                }
+
+                runTasks();
+                long now = System.currentTimeMillis();
+                if (now >= nextTick) {
+                    jetStream.tick(System.nanoTime());
+                    nextTick = now + TICK_MILLIS;
+                }
+                flushDirty();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Stand-in server stopped: " + e);
+        }
+        finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                }
+                catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                // closing anyway
+            }
+            stopped.countDown();
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            Runnable r;
+            synchronized (tasks) {
+                r = tasks.poll();
+            }
+            if (r == null) {
+                return;
+            }
+            r.run();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null) {
+            return;
+        }
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Client c = new Client(ch, ++nextClientId);
+        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        String info = "INFO {\"server_id\":\"STANDIN\",\"server_name\":\"standin\",\"version\":\"" + VERSION + "\""
+                + ",\"go\":\"standin\",\"host\":\"127.0.0.1\",\"port\":" + port
+                + ",\"headers\":true,\"max_payload\":" + MAX_PAYLOAD + ",\"proto\":1,\"jetstream\":true"
+                + ",\"client_id\":" + c.id + "}\r\n";
+        c.send(info.getBytes(StandardCharsets.US_ASCII));
+        markDirty(c);
+    }
+
+    private void read(Client c) throws IOException {
+        c.ensureReadSpace();
+        int n = c.ch.read(ByteBuffer.wrap(c.buf, c.end, c.buf.length - c.end));
+        if (n < 0) {
+            closeClient(c);
+            return;
+        }
+        c.end += n;
+        parse(c);
+    }
+
+    private void write(Client c) throws IOException {
+        c.out.flip();
+        c.ch.write(c.out);
+        c.out.compact();
+        if (c.out.position() == 0) {
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+        else {
+            c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flushDirty() {
+        for (Client c : dirty) {
+            c.dirty = false;
+            if (c.closed) {
+                continue;
+            }
+            try {
+                write(c);
+            }
+            catch (IOException | RuntimeException e) {
+                closeClient(c);
+            }
+        }
+        dirty.clear();
+    }
+
+    private void markDirty(Client c) {
+        if (!c.dirty) {
+            c.dirty = true;
+            dirty.add(c);
+        }
+    }
+
+    private void closeClient(Client c) {
+        if (c.closed) {
+            return;
+        }
+        c.closed = true;
+        c.key.cancel();
+        try {
+            c.ch.close();
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+        if (!c.subs.isEmpty()) {
+            subs.removeAll(c.subs.values());
+            c.subs.clear();
+            matchCache.clear();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // protocol parsing
+    // ----------------------------------------------------------------------------------------------------
+    private void parse(Client c) {
+        while (!c.closed) {
+            if (c.pendingTotal >= 0) {
+                int need = c.pendingTotal + 2;
+                if (c.end - c.start < need) {
+                    c.ensureCapacity(need);
+                    return;
+                }
+                byte[] hdr = c.pendingHdr > 0 ? Arrays.copyOfRange(c.buf, c.start, c.start + c.pendingHdr) : null;
+                byte[] data = Arrays.copyOfRange(c.buf, c.start + c.pendingHdr, c.start + c.pendingTotal);
+                c.start += need;
+                c.pendingTotal = -1;
+                publish(c, c.pendingSubject, c.pendingReply, hdr, data);
+                if (c.verbose) {
+                    c.send(OK);
+                    markDirty(c);
+                }
+                continue;
+            }
+
+            int cr = -1;
+            for (int x = c.start; x < c.end - 1; x++) {
+                if (c.buf[x] == '\r' && c.buf[x + 1] == '\n') {
+                    cr = x;
+                    break;
+                }
+            }
+            if (cr < 0) {
+                if (c.end - c.start > MAX_CONTROL_LINE) {
+                    error(c, "Maximum Control Line Exceeded");
+                }
+                return;
+            }
+            String line = new String(c.buf, c.start, cr - c.start, StandardCharsets.UTF_8);
+            c.start = cr + 2;
+            control(c, line);
+        }
+    }
+
+    private void control(Client c, String line) {
+        int sp = line.indexOf(' ');
+        String op = (sp < 0 ? line : line.substring(0, sp)).toUpperCase();
+        String[] args = sp < 0 ? new String[0] : args(line, sp + 1);
+        switch (op) {
+            case "PUB":
+                if (args.length == 2) {
+                    expectPayload(c, args[0], null, 0, Integer.parseInt(args[1]));
+                }
+                else if (args.length == 3) {
+                    expectPayload(c, args[0], args[1], 0, Integer.parseInt(args[2]));
+                }
+                else {
+                    error(c, "Unknown Protocol Operation");
+                }
+                return;
+            case "HPUB":
+                if (args.length == 3) {
+                    expectPayload(c, args[0], null, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                }
+                else if (args.length == 4) {
+                    expectPayload(c, args[0], args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                }
+                else {
+                    error(c, "Unknown Protocol Operation");
+                }
+                return;
+            case "SUB":
+                if (args.length == 2) {
+                    subscribe(c, args[0], null, args[1]);
+                }
+                else if (args.length == 3) {
+                    subscribe(c, args[0], args[1], args[2]);
+                }
+                else {
+                    error(c, "Unknown Protocol Operation");
+                    return;
+                }
+                break;
+            case "UNSUB":
+                unsubscribe(c, args[0], args.length > 1 ? Long.parseLong(args[1]) : 0);
+                break;
+            case "PING":
+                c.send(PONG);
+                markDirty(c);
+                return;
+            case "PONG":
+                return;
+            case "CONNECT":
+                connect(c, line.substring(sp + 1));
+                break;
+            default:
+                error(c, "Unknown Protocol Operation");
+                return;
+        }
+        if (c.verbose) {
+            c.send(OK);
+            markDirty(c);
+        }
+    }
+
+    private static String[] args(String line, int from) {
+        List<String> list = new ArrayList<>(4);
+        int x = from;
+        int len = line.length();
+        while (x < len) {
+            while (x < len && Character.isWhitespace(line.charAt(x))) {
+                x++;
+            }
+            int start = x;
+            while (x < len && !Character.isWhitespace(line.charAt(x))) {
+                x++;
+            }
+            if (x > start) {
+                list.add(line.substring(start, x));
+            }
+        }
+        return list.toArray(new String[0]);
+    }
+
+    private void expectPayload(Client c, String subject, String reply, int hdrLen, int totalLen) {
+        if (totalLen > MAX_PAYLOAD) {
+            error(c, "Maximum Payload Violation");
+            return;
+        }
+        c.pendingSubject = subject;
+        c.pendingReply = reply;
+        c.pendingHdr = hdrLen;
+        c.pendingTotal = totalLen;
+    }
+
+    private void connect(Client c, String json) {
+        JsonValue jv = JsonParser.parseUnchecked(json);
+        c.verbose = bool(jv, "verbose", false);
+        c.headers = bool(jv, "headers", false);
+        c.noResponders = bool(jv, "no_responders", false);
+        c.echo = bool(jv, "echo", true);
+    }
+
+    private static boolean bool(JsonValue jv, String key, boolean dflt) {
+        JsonValue v = jv.map == null ? null : jv.map.get(key);
+        return v == null || v.bool == null ? dflt : v.bool;
+    }
+
+    private void error(Client c, String err) {
+        c.send(("-ERR '" + err + "'\r\n").getBytes(StandardCharsets.US_ASCII));
+        try {
+            write(c);
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+        closeClient(c);
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    // subscriptions and routing
+    // ----------------------------------------------------------------------------------------------------
+    private void subscribe(Client c, String subject, String queue, String sid) {
+        Sub s = new Sub(c, subject, queue, sid);
+        Sub old = c.subs.put(sid, s);
+        if (old != null) {
+            subs.remove(old);
+        }
+        subs.add(s);
+        matchCache.clear();
+        jetStream.interest();
+    }
+
+    private void unsubscribe(Client c, String sid, long max) {
+        Sub s = c.subs.get(sid);
+        if (s == null) {
+            return;
+        }
+        if (max > 0 && s.delivered < max) {
+            s.max = max;
+            return;
+        }
+        removeSub(s);
+    }
+
+    private void removeSub(Sub s) {
+        s.client.subs.remove(s.sid);
+        subs.remove(s);
+        matchCache.clear();
+    }
+
+    private void publish(Client from, String subject, String reply, byte[] hdr, byte[] data) {
+        if (subject.startsWith(StandInJetStream.API_PREFIX)) {
+            jetStream.api(subject, reply, data);
+            return;
+        }
+        if (subject.startsWith(StandInJetStream.ACK_PREFIX)) {
+            jetStream.ack(subject, reply, data);
+            return;
+        }
+        if (subject.startsWith(StandInJetStream.FC_PREFIX)) {
+            jetStream.flowControlReply(subject);
+            return;
+        }
+        boolean stored = jetStream.capture(subject, reply, hdr, data);
+        int delivered = route(from, subject, subject, reply, hdr, data);
+        if (!stored && delivered == 0 && reply != null && from.noResponders) {
+            deliverStatus(reply, 503, null);
+        }
+    }
+
+    /**
+     * Deliver a message published by the server itself, for instance JetStream API responses and consumer messages.
+     * @param subject the subject
+     * @param reply the reply to, may be null
+     * @param hdr the serialized headers, may be null
+     * @param data the payload
+     * @return the number of subscriptions the message was delivered to
+     */
+    int deliver(String subject, String reply, byte[] hdr, byte[] data) {
+        return route(null, subject, subject, reply, hdr, data);
+    }
+
+    /**
+     * Deliver a message to the subscribers of one subject under another subject,
+     * the way a consumer delivers a stream message to a pull request inbox.
+     * @param to the subject used to find subscribers
+     * @param subject the subject the subscribers see
+     * @param reply the reply to, may be null
+     * @param hdr the serialized headers, may be null
+     * @param data the payload
+     * @return the number of subscriptions the message was delivered to
+     */
+    int deliver(String to, String subject, String reply, byte[] hdr, byte[] data) {
+        return route(null, to, subject, reply, hdr, data);
+    }
+
+    /**
+     * Deliver a status message, like "NATS/1.0 404 No Messages", used for no responders and pull request status.
+     * @param subject the subject
+     * @param code the status code
+     * @param text the status text, may be null
+     */
+    void deliverStatus(String subject, int code, String text) {
+        deliverStatus(subject, code, text, null, null);
+    }
+
+    /**
+     * Deliver a status message with a reply subject and headers, used for push consumer flow control and heartbeats.
+     * @param subject the subject
+     * @param code the status code
+     * @param text the status text, may be null
+     * @param reply the reply to, may be null
+     * @param headers header lines, each ending in CRLF, may be null
+     */
+    void deliverStatus(String subject, int code, String text, String reply, String headers) {
+        String status = "NATS/1.0 " + code + (text == null ? "" : " " + text) + "\r\n" + (headers == null ? "" : headers) + "\r\n";
+        route(null, subject, subject, reply, status.getBytes(StandardCharsets.US_ASCII), new byte[0]);
+    }
+
+    /**
+     * Whether any subscription would receive a message published to the subject.
+     * @param subject the subject
+     * @return true if there is interest
+     */
+    boolean hasInterest(String subject) {
+        return match(subject).length > 0;
+    }
+
+    private int route(Client from, String to, String subject, String reply, byte[] hdr, byte[] data) {
+        Sub[] matches = match(to);
+        if (matches.length == 0) {
+            return 0;
+        }
+        int delivered = 0;
+        Map<String, List<Sub>> groups = null;
+        for (Sub s : matches) {
+            if (from != null && !from.echo && s.client == from) {
+                continue;
+            }
+            if (s.queue == null) {
+                delivered += send(s, subject, reply, hdr, data);
+            }
+            else {
+                if (groups == null) {
+                    groups = new HashMap<>();
+                }
+                groups.computeIfAbsent(s.queue, q -> new ArrayList<>()).add(s);
+            }
+        }
+        if (groups != null) {
+            for (List<Sub> members : groups.values()) {
+                Sub s = members.get(ThreadLocalRandom.current().nextInt(members.size()));
+                delivered += send(s, subject, reply, hdr, data);
+            }
+        }
+        return delivered;
+    }
+
+    private int send(Sub s, String subject, String reply, byte[] hdr, byte[] data) {
+        Client c = s.client;
+        if (c.closed) {
+            return 0;
+        }
+        boolean withHeaders = hdr != null && c.headers;
+        c.sendAscii(withHeaders ? "HMSG " : "MSG ");
+        c.sendAscii(subject);
+        c.sendAscii(" ");
+        c.sendAscii(s.sid);
+        c.sendAscii(" ");
+        if (reply != null) {
+            c.sendAscii(reply);
+            c.sendAscii(" ");
+        }
+        if (withHeaders) {
+            c.sendAscii(Integer.toString(hdr.length));
+            c.sendAscii(" ");
+            c.sendAscii(Integer.toString(hdr.length + data.length));
+        }
+        else {
+            c.sendAscii(Integer.toString(data.length));
+        }
+        c.send(CRLF);
+        if (withHeaders) {
+            c.send(hdr);
+        }
+        c.send(data);
+        c.send(CRLF);
+
+        if (c.out.position() > MAX_PENDING_OUT) {
+            error(c, "Slow Consumer");
+            return 1;
+        }
+        markDirty(c);
+
+        if (++s.delivered == s.max) {
+            removeSub(s);
+        }
+        return 1;
+    }
+
+    private Sub[] match(String subject) {
+        Sub[] cached = matchCache.get(subject);
+        if (cached != null) {
+            return cached;
+        }
+        String[] tokens = subject.split("\\.");
+        List<Sub> list = new ArrayList<>();
+        for (Sub s : subs) {
+            if (matches(s.tokens, tokens)) {
+                list.add(s);
+            }
+        }
+        Sub[] result = list.toArray(new Sub[0]);
+        if (matchCache.size() > 10_000) {
+            matchCache.clear();
+        }
+        matchCache.put(subject, result);
+        return result;
+    }
+
+    /**
+     * Whether a subject matches a filter that can contain * and &gt; wildcards.
+     * @param filter the filter tokens
+     * @param subject the subject tokens
+     * @return true if it matches
+     */
+    static boolean matches(String[] filter, String[] subject) {
+        for (int x = 0; x < filter.length; x++) {
+            if (filter[x].equals(">")) {
+                return subject.length > x;
+            }
+            if (x >= subject.length) {
+                return false;
+            }
+            if (!filter[x].equals("*") && !filter[x].equals(subject[x])) {
+                return false;
+            }
+        }
+        return filter.length == subject.length;
+    }
+
+    static class Sub {
+        final Client client;
+        final String subject;
+        final String[] tokens;
+        final String queue;
+        final String sid;
+        long max;
+        long delivered;
+
+        Sub(Client client, String subject, String queue, String sid) {
+            this.client = client;
+            this.subject = subject;
+            this.tokens = subject.split("\\.");
+            this.queue = queue;
+            this.sid = sid;
+        }
+    }
+
+    static class Client {
+        final SocketChannel ch;
+        final long id;
+        final Map<String, Sub> subs = new HashMap<>();
+        SelectionKey key;
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        byte[] buf = new byte[64 * 1024];
+        int start;
+        int end;
+        String pendingSubject;
+        String pendingReply;
+        int pendingHdr;
+        int pendingTotal = -1;
+        boolean verbose;
+        boolean headers;
+        boolean noResponders;
+        boolean echo = true;
+        boolean dirty;
+        boolean closed;
+
+        Client(SocketChannel ch, long id) {
+            this.ch = ch;
+            this.id = id;
+        }
+
+        void send(byte[] bytes) {
+            ensureWriteSpace(bytes.length);
+            out.put(bytes);
+        }
+
+        /**
+         * Write a protocol token without encoding it first, subjects that are not ascii fall back to utf-8.
+         */
+        void sendAscii(String s) {
+            int len = s.length();
+            ensureWriteSpace(len);
+            for (int x = 0; x < len; x++) {
+                char ch = s.charAt(x);
+                if (ch > 127) {
+                    send(s.substring(x).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                out.put((byte) ch);
+            }
+        }
+
+        private void ensureWriteSpace(int len) {
+            if (out.remaining() < len) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + len));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+        }
+
+        void ensureReadSpace() {
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+            else if (end == buf.length) {
+                compact();
+                if (end == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+            }
+        }
+
+        void ensureCapacity(int need) {
+            if (buf.length - start < need) {
+                compact();
+                if (buf.length < need) {
+                    buf = Arrays.copyOf(buf, Math.max(need, buf.length * 2));
+                }
+            }
+        }
+
+        private void compact() {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        List<String[]> streams = new ArrayList<>();
+        String stream = null;
+        for (int x = 0; x < args.length - 1; x += 2) {
+            switch (args[x]) {
+                case "-p":
+                    port = Integer.parseInt(args[x + 1]);
+                    break;
+                case "-strm":
+                    stream = args[x + 1];
+                    break;
+                case "-sub":
+                    streams.add(new String[]{stream == null ? args[x + 1] : stream, args[x + 1]});
+                    stream = null;
+                    break;
+                default:
+                    System.out.println("\nUsage: java -cp <classpath> StandInServer [-p port] [-strm stream -sub subject]*\n");
+                    System.exit(-1);
+            }
+        }
+
+        StandInServer s = StandInServer.start(port);
+        for (String[] ss : streams) {
+            s.addStream(ss[0], ss[1]);
+            System.out.printf("Stream %s on subject %s\n", ss[0], ss[1]);
+        }
+        System.out.println("Stand-in server listening on " + s.getUrl());
+        s.stopped.await();
+    }
+}
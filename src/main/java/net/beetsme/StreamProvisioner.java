@@ -0,0 +1,159 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.JetStreamApiException;
+import io.nats.client.JetStreamManagement;
+import io.nats.client.api.StorageType;
+import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.StreamInfo;
+
+import java.io.IOException;
+
+/**
+ * Makes sure a stream exists with the given subjects, storage, replicas and limits.
+ *
+ * <p>By default an existing stream is left as it is, messages and all. With fresh, it is deleted
+ * and created again, so whatever is loaded next is all it holds.
+ */
+public class StreamProvisioner {
+    static final int STREAM_NOT_FOUND = 10059;
+
+    private final JetStreamManagement jsm;
+    private final StreamConfiguration config;
+    private final boolean fresh;
+
+    private StreamProvisioner(Builder b) {
+        this.jsm = b.jsm;
+        this.fresh = b.fresh;
+        this.config = StreamConfiguration.builder()
+                .name(b.stream)
+                .subjects(b.subjects)
+                .storageType(b.storageType)
+                .replicas(b.replicas)
+                .maxMessages(b.maxMsgs)
+                .maxBytes(b.maxBytes)
+                .build();
+    }
+
+    /**
+     * Create the stream if it does not exist, or again if fresh.
+     * @return the info of the stream as it now is
+     * @throws IOException if the request fails
+     * @throws JetStreamApiException if the server refuses the request
+     */
+    public StreamInfo provision() throws IOException, JetStreamApiException {
+        StreamInfo si = existing();
+        if (si != null && fresh) {
+            jsm.deleteStream(config.getName());
+            si = null;
+        }
+        if (si == null) {
+            si = jsm.addStream(config);
+            System.out.printf("Created %s stream %s with subjects %s, %d replica(s)\n",
+                    config.getStorageType(), config.getName(), config.getSubjects(), config.getReplicas());
+        }
+        return si;
+    }
+
+    private StreamInfo existing() throws IOException, JetStreamApiException {
+        try {
+            return jsm.getStreamInfo(config.getName());
+        }
+        catch (JetStreamApiException e) {
+            if (e.getApiErrorCode() == STREAM_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    public static Builder builder(JetStreamManagement jsm, String stream) {
+        return new Builder(jsm, stream);
+    }
+
+    public static class Builder {
+        private final JetStreamManagement jsm;
+        private final String stream;
+        private String[] subjects;
+        private StorageType storageType = StorageType.File;
+        private int replicas = 1;
+        private long maxMsgs = -1;
+        private long maxBytes = -1;
+        private boolean fresh;
+
+        public Builder(JetStreamManagement jsm, String stream) {
+            this.jsm = jsm;
+            this.stream = stream;
+        }
+
+        public Builder subjects(String... subjects) {
+            this.subjects = subjects;
+            return this;
+        }
+
+        public Builder storageType(StorageType storageType) {
+            this.storageType = storageType;
+            return this;
+        }
+
+        /**
+         * @param storageType file or memory, null for file
+         * @return the builder
+         */
+        public Builder storageType(String storageType) {
+            this.storageType = storageType == null ? StorageType.File : StorageType.get(storageType.toLowerCase());
+            return this;
+        }
+
+        public Builder replicas(int replicas) {
+            this.replicas = Math.max(1, replicas);
+            return this;
+        }
+
+        /**
+         * @param maxMsgs the most messages the stream keeps, less than 1 for unlimited
+         * @return the builder
+         */
+        public Builder maxMsgs(long maxMsgs) {
+            this.maxMsgs = maxMsgs < 1 ? -1 : maxMsgs;
+            return this;
+        }
+
+        /**
+         * @param maxBytes the most bytes the stream keeps, less than 1 for unlimited
+         * @return the builder
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes < 1 ? -1 : maxBytes;
+            return this;
+        }
+
+        /**
+         * @param fresh whether to delete an existing stream and create it again
+         * @return the builder
+         */
+        public Builder fresh(boolean fresh) {
+            this.fresh = fresh;
+            return this;
+        }
+
+        public StreamProvisioner build() {
+            if (storageType == null) {
+                throw new IllegalArgumentException("Storage type must be file or memory");
+            }
+            return new StreamProvisioner(this);
+        }
+    }
+}
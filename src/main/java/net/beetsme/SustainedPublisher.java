@@ -0,0 +1,296 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Connection;
+import io.nats.client.impl.Headers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes a fixed number of messages as fast as possible, or paced to a target rate.
+ * The payload array is built once and handed to every publish. The client keeps a
+ * reference to it until the message is written, so the array is never modified after construction.
+ * Instead of flushing after every message, a round trip flush is done once per flush batch,
+ * which keeps the outgoing queue bounded without paying a round trip per message.
+ * With a {@link SpillBuffer}, publishes go through it, so an outage fills the spill file instead of failing.
+ * With a {@link BatchingPublisher}, each message is a record added to it, and it decides when to send.
+ */
+public class SustainedPublisher {
+    public static final int DEFAULT_FLUSH_BATCH = 1000;
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Connection nc;
+    private final String[] subjects;
+    private final Headers headers;
+    private final byte[] payload;
+    private final int msgCount;
+    private final int rate;
+    private final int flushBatch;
+    private final boolean flushInline;
+    private final boolean timestamp;
+    private final ExampleMetrics metrics;
+    private final SpillBuffer spill;
+    private final BatchingPublisher batcher;
+
+    private long published;
+    private long elapsedNanos;
+
+    private SustainedPublisher(Builder b) {
+        this.nc = b.nc;
+        this.subjects = b.subjects == null || b.subjects.length == 0 ? new String[]{b.subject} : b.subjects;
+        this.headers = b.headers == null || b.headers.isEmpty() ? null : b.headers;
+        this.payload = b.payload;
+        this.msgCount = b.msgCount;
+        this.rate = b.rate;
+        this.flushBatch = b.flushBatch;
+        this.flushInline = b.flushInline;
+        this.timestamp = b.timestamp;
+        this.metrics = b.metrics;
+        this.spill = b.spill;
+        this.batcher = b.batcher;
+    }
+
+    public void run() throws Exception {
+        long nanosPerMsg = rate > 0 ? 1_000_000_000L / rate : 0;
+        long start = System.nanoTime();
+        for (int x = 1; x <= msgCount; x++) {
+            if (batcher != null) {
+                // the batcher sends to its own subject, adding the headers, codec and spill it was built with to each batch
+                batcher.add(payload);
+            }
+            else {
+                publish(subjects[(x - 1) % subjects.length]);
+            }
+            if (metrics != null) {
+                metrics.record(payload.length);
+            }
+
+            if (flushBatch > 0 && x % flushBatch == 0) {
+                flush();
+            }
+
+            if (nanosPerMsg > 0) {
+                // pace against the ideal schedule instead of sleeping a fixed amount after each message,
+                // so time spent in publish and flush counts against the interval
+                long wait = start + (x * nanosPerMsg) - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }
+        if (batcher != null) {
+            // the flushes above leave a partly filled batch to fill or linger, the last one goes now
+            batcher.flush();
+        }
+        flush();
+        elapsedNanos = System.nanoTime() - start;
+        published = msgCount;
+    }
+
+    private void publish(String subject) throws Exception {
+        Headers h = headers;
+        if (timestamp) {
+            // the client holds the headers until the message is written, so each message gets its own
+            h = headers == null ? new Headers() : new Headers(headers);
+            h.put(ExampleUtils.PUB_NANOS_HEADER, Long.toString(ExampleUtils.epochNanos()));
+        }
+        if (spill != null) {
+            spill.publish(subject, h, payload);
+        }
+        else if (h == null) {
+            nc.publish(subject, payload);
+        }
+        else {
+            nc.publish(subject, h, payload);
+        }
+        if (flushInline && spill == null) {
+            // write it now rather than when the writer thread next wakes, no round trip
+            nc.flushBuffer();
+        }
+    }
+
+    private void flush() throws Exception {
+        if (spill == null) {
+            nc.flush(FLUSH_TIMEOUT);
+            return;
+        }
+        // during an outage the spill file holds the messages, a flush would only wait for the timeout
+        if (nc.getStatus() == Connection.Status.CONNECTED) {
+            try {
+                nc.flush(FLUSH_TIMEOUT);
+            }
+            catch (TimeoutException | IllegalStateException e) {
+                // dropped while flushing, the spill file takes over
+            }
+        }
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public long getPublishedBytes() {
+        return published * payload.length;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Build a payload of the requested size by repeating the seed bytes.
+     * @param seed the bytes to repeat, usually the example message
+     * @param size the size of the payload, less than 1 to use the seed as is
+     * @return the payload
+     */
+    public static byte[] payload(byte[] seed, int size) {
+        if (size < 1) {
+            return seed;
+        }
+        byte[] payload = new byte[size];
+        if (seed.length > 0) {
+            for (int x = 0; x < size; x++) {
+                payload[x] = seed[x % seed.length];
+            }
+        }
+        return payload;
+    }
+
+    public static Builder builder(Connection nc, String subject) {
+        return new Builder(nc, subject);
+    }
+
+    public static class Builder {
+        private final Connection nc;
+        private final String subject;
+        private String[] subjects;
+        private Headers headers;
+        private byte[] payload = new byte[0];
+        private int msgCount = 1;
+        private int rate;
+        private int flushBatch = DEFAULT_FLUSH_BATCH;
+        private boolean flushInline;
+        private boolean timestamp;
+        private ExampleMetrics metrics;
+        private SpillBuffer spill;
+        private BatchingPublisher batcher;
+
+        public Builder(Connection nc, String subject) {
+            this.nc = nc;
+            this.subject = subject;
+        }
+
+        /**
+         * @param subjects subjects to publish to in turn instead of the builder's subject
+         * @return the builder
+         */
+        public Builder subjects(String... subjects) {
+            this.subjects = subjects;
+            return this;
+        }
+
+        /**
+         * @param headers optional headers sent with every message, null for none
+         * @return the builder
+         */
+        public Builder headers(Headers headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        /**
+         * @param payload the payload sent with every message, never modified by the publisher
+         * @return the builder
+         */
+        public Builder payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder msgCount(int msgCount) {
+            this.msgCount = msgCount;
+            return this;
+        }
+
+        /**
+         * @param rate the target messages per second, less than 1 for unlimited
+         * @return the builder
+         */
+        public Builder rate(int rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        /**
+         * @param flushBatch the number of messages between flushes, less than 1 to only flush at the end
+         * @return the builder
+         */
+        public Builder flushBatch(int flushBatch) {
+            this.flushBatch = flushBatch;
+            return this;
+        }
+
+        /**
+         * @param flushInline whether to write every message to the socket as it is published, see {@link TuningProfile#flushInline()}
+         * @return the builder
+         */
+        public Builder flushInline(boolean flushInline) {
+            this.flushInline = flushInline;
+            return this;
+        }
+
+        /**
+         * @param timestamp whether to send the publish time in the {@link ExampleUtils#PUB_NANOS_HEADER} header
+         * @return the builder
+         */
+        public Builder timestamp(boolean timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * @param metrics optional metrics to count every publish in, null for none
+         * @return the builder
+         */
+        public Builder metrics(ExampleMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param spill optional spill buffer to publish through, null to publish on the connection directly
+         * @return the builder
+         */
+        public Builder spill(SpillBuffer spill) {
+            this.spill = spill;
+            return this;
+        }
+
+        /**
+         * @param batcher optional batching publisher to add each message to as a record, null to publish each message
+         * @return the builder
+         */
+        public Builder batcher(BatchingPublisher batcher) {
+            this.batcher = batcher;
+            return this;
+        }
+
+        public SustainedPublisher build() {
+            return new SustainedPublisher(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import io.nats.client.Consumer;
+import io.nats.client.Options;
+
+/**
+ * Named sets of connection and consumer settings, picked with -tune.
+ *
+ * <ul>
+ * <li>low-latency: a small write buffer, and every publish is written to the socket right away
+ * instead of waiting for the writer to batch it.</li>
+ * <li>high-throughput: a large write buffer and outgoing queue, and high pending limits,
+ * so bursts are absorbed instead of blocking publishers or dropping slow consumer messages.</li>
+ * <li>memory-constrained: small buffers, a short outgoing queue and low pending limits,
+ * publishers block sooner and slow consumers are reported sooner.</li>
+ * </ul>
+ * The default profile leaves everything as the client has it.
+ */
+public enum TuningProfile {
+    DEFAULT("default", Options.DEFAULT_BUFFER_SIZE, Options.DEFAULT_MAX_MESSAGES_IN_OUTGOING_QUEUE,
+            Options.DEFAULT_RECONNECT_BUF_SIZE, Consumer.DEFAULT_MAX_MESSAGES, Consumer.DEFAULT_MAX_BYTES, false),
+    LOW_LATENCY("low-latency", 16 * 1024, Options.DEFAULT_MAX_MESSAGES_IN_OUTGOING_QUEUE,
+            Options.DEFAULT_RECONNECT_BUF_SIZE, Consumer.DEFAULT_MAX_MESSAGES, Consumer.DEFAULT_MAX_BYTES, true),
+    HIGH_THROUGHPUT("high-throughput", 1024 * 1024, 100_000,
+            64 * 1024 * 1024, 2 * 1024 * 1024, 512 * 1024 * 1024, false),
+    MEMORY_CONSTRAINED("memory-constrained", 8 * 1024, 1000,
+            1024 * 1024, 10_000, 8 * 1024 * 1024, false);
+
+    private final String label;
+    private final int bufferSize;
+    private final int maxOutgoing;
+    private final long reconnectBufferSize;
+    private final long pendingMsgs;
+    private final long pendingBytes;
+    private final boolean flushInline;
+
+    TuningProfile(String label, int bufferSize, int maxOutgoing, long reconnectBufferSize,
+                  long pendingMsgs, long pendingBytes, boolean flushInline) {
+        this.label = label;
+        this.bufferSize = bufferSize;
+        this.maxOutgoing = maxOutgoing;
+        this.reconnectBufferSize = reconnectBufferSize;
+        this.pendingMsgs = pendingMsgs;
+        this.pendingBytes = pendingBytes;
+        this.flushInline = flushInline;
+    }
+
+    /**
+     * Set the profile's buffer and outgoing queue sizes.
+     * @param builder the options builder
+     * @return the builder
+     */
+    public Options.Builder apply(Options.Builder builder) {
+        if (this == DEFAULT) {
+            return builder;
+        }
+        return builder.bufferSize(bufferSize)
+                .maxMessagesInOutgoingQueue(maxOutgoing)
+                .reconnectBufferSize(reconnectBufferSize);
+    }
+
+    /**
+     * Set the profile's pending limits on a subscription or dispatcher.
+     * @param consumer the subscription or dispatcher
+     */
+    public void applyPendingLimits(Consumer consumer) {
+        if (this != DEFAULT) {
+            consumer.setPendingLimits(pendingMsgs, pendingBytes);
+        }
+    }
+
+    /**
+     * Whether publishers should write each message to the socket right away with flushBuffer.
+     * @return true to flush inline
+     */
+    public boolean flushInline() {
+        return flushInline;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    /**
+     * @param label a profile label like low-latency, or null for the default
+     * @return the profile
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    public static TuningProfile of(String label) {
+        if (label == null) {
+            return DEFAULT;
+        }
+        for (TuningProfile p : values()) {
+            if (p.label.equalsIgnoreCase(label) || p.name().equalsIgnoreCase(label)) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("Unknown tuning profile " + label);
+    }
+}
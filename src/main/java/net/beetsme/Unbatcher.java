@@ -0,0 +1,98 @@
+package net.beetsme;
+
+// Copyright 2020 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits the batches a {@link BatchingPublisher} sends back into records, in front of another handler.
+ *
+ * <p>Each record is handed on as a view over its part of the batch, nothing is copied, and the
+ * record's headers are the batch's, so metrics count records and time them from the batch's first record.
+ * Messages without the {@link BatchingPublisher#BATCH_HEADER} header are handed on whole, as one record.
+ * A batch whose frames do not add up is counted as malformed, the records before the bad frame are kept.
+ */
+public class Unbatcher implements PayloadHandler {
+    private final PayloadHandler handler;
+    private final ThreadLocal<PayloadView> views = ThreadLocal.withInitial(PayloadView::new);
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder plain = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final AtomicLong firstNanos = new AtomicLong();
+    private volatile long lastNanos;
+
+    /**
+     * @param handler called for every record, on the thread that received the batch
+     */
+    public Unbatcher(PayloadHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void onPayload(PayloadView payload) {
+        long now = System.nanoTime();
+        firstNanos.compareAndSet(0, now);
+        if (payload.header(BatchingPublisher.BATCH_HEADER) == null) {
+            plain.increment();
+            records.increment();
+            handler.onPayload(payload);
+            lastNanos = System.nanoTime();
+            return;
+        }
+        batches.increment();
+        byte[] data = payload.array();
+        int at = payload.offset();
+        int end = at + payload.length();
+        PayloadView record = views.get();
+        int count = 0;
+        while (at < end) {
+            if (end - at < 4) {
+                malformed.increment();
+                break;
+            }
+            int len = ((data[at] & 0xff) << 24) | ((data[at + 1] & 0xff) << 16) | ((data[at + 2] & 0xff) << 8) | (data[at + 3] & 0xff);
+            at += 4;
+            if (len < 0 || len > end - at) {
+                malformed.increment();
+                break;
+            }
+            handler.onPayload(record.of(payload.message(), data, at, len));
+            at += len;
+            count++;
+        }
+        records.add(count);
+        lastNanos = System.nanoTime();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    /**
+     * Print the record and batch rates, nothing when no batch was seen.
+     */
+    public void printStats() {
+        long b = batches.sum();
+        if (b == 0) {
+            return;
+        }
+        long r = records.sum();
+        long p = plain.sum();
+        double seconds = Math.max(lastNanos - firstNanos.get(), 1) / 1_000_000_000.0;
+        System.out.printf("Unbatched %,d records from %,d batches, %.1f records per batch, %,d plain messages, %,d malformed, %,.0f records/sec, %,.0f msgs/sec\n",
+                r, b, b == 0 ? 0.0 : (double) (r - p) / b, p, malformed.sum(), r / seconds, (b + p) / seconds);
+    }
+}